@@ -0,0 +1,100 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedDateMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DateDamerau} on the birth dates of the synthetic corpus: comparing two strings, comparing a
+ * prepared query date with a string, and comparing it with a date read from doc values as a day.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateDamerauBenchmark {
+
+    private static final int QUERIES = 64;
+
+    private final DateDamerau dateDamerau = new DateDamerau();
+    private String[] queries;
+    private PreparedDateMatcher[] prepared;
+    private String[] values;
+    private long[] epochDays;
+    private int mask;
+    private int next;
+
+    @Setup
+    public void setup() {
+        MatcherService matcherService = new MatcherService();
+        SyntheticCorpus corpus = new SyntheticCorpus(4096, 42L);
+        queries = new String[QUERIES];
+        prepared = new PreparedDateMatcher[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = corpus.record(i)[SyntheticCorpus.BIRTH_DATE];
+            prepared[i] = (PreparedDateMatcher) matcherService.prepare("dateDamerau", queries[i]);
+        }
+        values = new String[corpus.size()];
+        epochDays = new long[corpus.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = corpus.variant(i)[SyntheticCorpus.BIRTH_DATE];
+            try {
+                epochDays[i] = LocalDate.parse(values[i]).toEpochDay();
+            } catch (DateTimeParseException e) {
+                // a swapped day and month that is not a valid date could not have been indexed as a date
+                epochDays[i] = LocalDate.parse(corpus.record(i)[SyntheticCorpus.BIRTH_DATE]).toEpochDay();
+            }
+        }
+        mask = values.length - 1;
+    }
+
+    @Benchmark
+    public double similarity() {
+        int i = next++;
+        return dateDamerau.similarity(queries[i & (QUERIES - 1)], values[i & mask]);
+    }
+
+    @Benchmark
+    public double prepared() {
+        int i = next++;
+        return prepared[i & (QUERIES - 1)].score(values[i & mask]);
+    }
+
+    @Benchmark
+    public double preparedEpochDay() {
+        int i = next++;
+        return prepared[i & (QUERIES - 1)].scoreDate(epochDays[i & mask]);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single comparison of each built-in string matcher, both prepared for a query value as searches use
+ * them and through {@link MatcherService#matchScore(String, String, String)}. The query values are family names or
+ * addresses of the synthetic corpus and the document values their misspelled variants.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatcherBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @Param({
+        "cosine-similarity", "dice-similarity", "jaccard-similarity", "jaro-winkler-similarity",
+        "normalized-levenshtein-similarity", "normalized-lcs-similarity", "levenshtein",
+        "normalized-levenshtein-distance", "damerau-levenshtein", "optimal-string-alignment", "jaro-winkler-distance",
+        "longest-common-subsequence", "normalized-lcs-distance", "metric-lcs", "ngram", "qgram", "cosine-distance",
+        "dice-distance", "jaccard-distance", "double-metaphone", "nysiis", "soundex"
+    })
+    public String matcher;
+
+    @Param({"name", "address"})
+    public String field;
+
+    private final MatcherService matcherService = new MatcherService();
+    private String[] queries;
+    private PreparedMatcher[] prepared;
+    private String[] values;
+    private int mask;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SyntheticCorpus corpus = new SyntheticCorpus(4096, 42L);
+        int column = "name".equals(field) ? SyntheticCorpus.FAMILY_NAME : SyntheticCorpus.ADDRESS;
+        queries = new String[QUERIES];
+        prepared = new PreparedMatcher[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = corpus.record(i)[column];
+            prepared[i] = matcherService.prepare(matcher, queries[i]);
+        }
+        values = new String[corpus.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = corpus.variant(i)[column];
+        }
+        mask = values.length - 1;
+    }
+
+    @Benchmark
+    public double prepared() {
+        int i = next++;
+        return prepared[i & (QUERIES - 1)].score(values[i & mask]);
+    }
+
+    @Benchmark
+    public double matchScore() {
+        int i = next++;
+        return matcherService.matchScore(matcher, queries[i & (QUERIES - 1)], values[i & mask]);
+    }
+}
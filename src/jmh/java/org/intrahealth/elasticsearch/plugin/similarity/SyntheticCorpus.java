@@ -0,0 +1,189 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A seeded synthetic corpus of person records for the benchmarks. Each record has a given name, a family name, an
+ * address and a birth date, and is paired with a copy carrying the kind of errors found in registration data: by
+ * default a third of the values have a typo (a substitution, deletion, insertion or transposition, sometimes two),
+ * and a few differ in case or surrounding whitespace. Dates get a swapped day and month or a wrong year digit
+ * instead.
+ */
+public final class SyntheticCorpus {
+
+    public static final int GIVEN_NAME = 0;
+    public static final int FAMILY_NAME = 1;
+    public static final int ADDRESS = 2;
+    public static final int BIRTH_DATE = 3;
+    public static final int FIELDS = 4;
+
+    private static final String[] GIVEN_NAMES = {
+        "Aaliyah", "Abdoulaye", "Adama", "Agnes", "Alexander", "Amina", "Ana", "Andrew", "Angela", "Aminata",
+        "Bakary", "Barbara", "Benjamin", "Blessing", "Catherine", "Charles", "Christopher", "Daniel", "David",
+        "Dorothy", "Elizabeth", "Emmanuel", "Esther", "Fatoumata", "Francis", "Grace", "Hassan", "Ibrahim",
+        "Isabella", "James", "Jennifer", "John", "Joseph", "Josephine", "Kwame", "Linda", "Margaret", "Maria",
+        "Mariam", "Mary", "Michael", "Mohamed", "Moussa", "Nancy", "Olivia", "Patricia", "Paul", "Peter",
+        "Richard", "Robert", "Ruth", "Samuel", "Sarah", "Susan", "Thomas", "William", "Yaw", "Zainab"
+    };
+
+    private static final String[] FAMILY_NAMES = {
+        "Abubakar", "Adeyemi", "Anderson", "Asante", "Bah", "Bangura", "Brown", "Camara", "Coulibaly", "Davis",
+        "Diallo", "Diarra", "Garcia", "Hernandez", "Jackson", "Johnson", "Jones", "Kamara", "Keita", "Koroma",
+        "Lopez", "Martin", "Martinez", "Mensah", "Miller", "Moore", "Mwangi", "Ndiaye", "Nguyen", "Ochieng",
+        "Okafor", "Okonkwo", "Otieno", "Rodriguez", "Sesay", "Smith", "Sow", "Taylor", "Thomas", "Thompson",
+        "Toure", "Traore", "Turay", "Wanjiru", "White", "Williams", "Wilson", "Young", "Van der Merwe",
+        "Christodoulopoulos"
+    };
+
+    private static final String[] STREETS = {
+        "Main", "Church", "Market", "Independence", "Liberation", "Kenyatta", "Nkrumah", "Mandela", "Station",
+        "Hospital", "Victoria", "Lumumba", "Airport", "Ring", "Mission", "Garden", "Lake View", "Old Mill"
+    };
+
+    private static final String[] STREET_TYPES = {"Street", "Road", "Avenue", "Lane", "Close", "Way", "Drive"};
+
+    private static final String[] CITIES = {
+        "Accra", "Bamako", "Dakar", "Freetown", "Kampala", "Kumasi", "Lagos", "Lilongwe", "Monrovia", "Nairobi"
+    };
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    private static final double DEFAULT_TYPO_RATE = 0.33;
+
+    private final String[][] records;
+    private final String[][] variants;
+    private final double typoRate;
+
+    /**
+     * @param size the number of records, rounded up to a power of two so that benchmarks can cycle with a mask.
+     * @param seed the seed of the random generator, the same seed always gives the same corpus.
+     */
+    public SyntheticCorpus(int size, long seed) {
+        this(size, seed, DEFAULT_TYPO_RATE);
+    }
+
+    /**
+     * @param size     the number of records, rounded up to a power of two so that benchmarks can cycle with a mask.
+     * @param seed     the seed of the random generator, the same seed always gives the same corpus.
+     * @param typoRate the probability that a value of a variant has an error.
+     */
+    public SyntheticCorpus(int size, long seed, double typoRate) {
+        this.typoRate = typoRate;
+        int length = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        Random random = new Random(seed);
+        records = new String[length][];
+        variants = new String[length][];
+        for (int i = 0; i < length; i++) {
+            String[] record = new String[FIELDS];
+            record[GIVEN_NAME] = pick(random, GIVEN_NAMES);
+            record[FAMILY_NAME] = pick(random, FAMILY_NAMES);
+            record[ADDRESS] = (1 + random.nextInt(250)) + " " + pick(random, STREETS) + " " + pick(random, STREET_TYPES)
+                    + ", " + pick(random, CITIES);
+            record[BIRTH_DATE] = String.format(Locale.ROOT, "%04d-%02d-%02d", 1940 + random.nextInt(80),
+                    1 + random.nextInt(12), 1 + random.nextInt(28));
+            records[i] = record;
+
+            String[] variant = new String[FIELDS];
+            for (int field = 0; field < BIRTH_DATE; field++) {
+                variant[field] = misspell(random, record[field]);
+            }
+            variant[BIRTH_DATE] = mistype(random, record[BIRTH_DATE]);
+            variants[i] = variant;
+        }
+    }
+
+    /**
+     * @return the number of records, a power of two.
+     */
+    public int size() {
+        return records.length;
+    }
+
+    /**
+     * @return the values of a record.
+     */
+    public String[] record(int index) {
+        return records[index];
+    }
+
+    /**
+     * @return the values of a record as they would be entered again, errors included.
+     */
+    public String[] variant(int index) {
+        return variants[index];
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private String misspell(Random random, String value) {
+        String misspelled = value;
+        if (random.nextDouble() < typoRate) {
+            misspelled = typo(random, misspelled);
+            if (random.nextInt(100) < 15) {
+                misspelled = typo(random, misspelled);
+            }
+        }
+        int roll = random.nextInt(100);
+        if (roll < 5) {
+            misspelled = misspelled.toUpperCase(Locale.ROOT);
+        } else if (roll < 8) {
+            misspelled = " " + misspelled + " ";
+        }
+        return misspelled;
+    }
+
+    private static String typo(Random random, String value) {
+        if (value.length() < 2) {
+            return value;
+        }
+        int at = random.nextInt(value.length() - 1);
+        char letter = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        switch (random.nextInt(4)) {
+            case 0:
+                return value.substring(0, at) + letter + value.substring(at + 1);
+            case 1:
+                return value.substring(0, at) + value.substring(at + 1);
+            case 2:
+                return value.substring(0, at) + letter + value.substring(at);
+            default:
+                return value.substring(0, at) + value.charAt(at + 1) + value.charAt(at) + value.substring(at + 2);
+        }
+    }
+
+    private String mistype(Random random, String date) {
+        if (random.nextDouble() >= typoRate) {
+            return date;
+        }
+        switch (random.nextInt(3)) {
+            case 0:
+                // day and month swapped
+                return date.substring(0, 5) + date.substring(8, 10) + "-" + date.substring(5, 7);
+            case 1:
+                // two digits of the year transposed
+                return date.substring(0, 2) + date.charAt(3) + date.charAt(2) + date.substring(4);
+            default:
+                return date.substring(0, 3) + random.nextInt(10) + date.substring(4);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.SyntheticCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scoring one document with each score mode, as the score script does, with a matcher for each field of
+ * the synthetic corpus: Jaro-Winkler on the given name, Levenshtein on the family name, Dice on the address and
+ * DateDamerau on the birth date. The documents are the misspelled variants of the corpus records, matched against
+ * the first records as queries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoreModeBenchmark {
+
+    private static final int QUERIES = 16;
+
+    private static final String[] FIELDS = {"given_name", "family_name", "address", "birth_date"};
+    private static final String[] MATCHERS = {"jaro-winkler-similarity", "levenshtein", "dice-similarity", "dateDamerau"};
+    private static final double[] THRESHOLDS = {0.85, 2.0, 0.6, 0.8};
+
+    @Param({"fellegi-sunter", "bayes", "multiply", "sum"})
+    public String scoreMode;
+
+    private ExecutionPlan.Leaf[] leaves;
+    private int mask;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        MatcherService matcherService = new MatcherService();
+        SyntheticCorpus corpus = new SyntheticCorpus(4096, 42L);
+        FieldValueReader.Leaf[] values = new FieldValueReader.Leaf[FIELDS.length];
+        for (int field = 0; field < FIELDS.length; field++) {
+            int column = field;
+            values[field] = docId -> corpus.variant(docId)[column];
+        }
+        leaves = new ExecutionPlan.Leaf[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            ExecutionPlan plan = ExecutionPlan.compile(params(corpus.record(i)), matcherService, null, null);
+            leaves[i] = plan.getLeaf(values);
+        }
+        mask = corpus.size() - 1;
+    }
+
+    private Map<String, Object> params(String[] record) {
+        List<Map<String, Object>> matchers = new ArrayList<>();
+        for (int field = 0; field < FIELDS.length; field++) {
+            Map<String, Object> matcher = new HashMap<>();
+            matcher.put("field", FIELDS[field]);
+            matcher.put("value", record[field]);
+            matcher.put("matcher", MATCHERS[field]);
+            switch (scoreMode) {
+                case "fellegi-sunter":
+                    matcher.put("threshold", THRESHOLDS[field]);
+                    matcher.put("m_value", 0.9);
+                    matcher.put("u_value", 0.05);
+                    break;
+                case "bayes":
+                    matcher.put("high", 0.9);
+                    matcher.put("low", 0.1);
+                    break;
+                default:
+                    matcher.put("weight", 1.0);
+                    break;
+            }
+            matchers.add(matcher);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("score_mode", scoreMode);
+        params.put("base_score", 0.0);
+        params.put("matchers", matchers);
+        return params;
+    }
+
+    @Benchmark
+    public double score() {
+        int i = next++;
+        return leaves[i & (QUERIES - 1)].score(i & mask);
+    }
+}
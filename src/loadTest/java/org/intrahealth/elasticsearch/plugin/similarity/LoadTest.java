@@ -0,0 +1,381 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Loads synthetic person records into a running node and replays string similarity searches against them with each
+ * score mode, reporting the throughput, the latency percentiles and the heap and GC activity of the node as JSON.
+ * It is run by the <code>loadTest</code> Gradle task against a test cluster with the plugin installed.
+ * <p>
+ * The records come from {@link SyntheticCorpus}. A share of the indexed records, set by the duplicate rate, are
+ * misspelled copies of records indexed before them, and the searches are for misspelled copies of random records.
+ * The options are read from system properties prefixed with <code>loadtest.</code>, see {@link #main(String[])}.
+ */
+public final class LoadTest {
+
+    private static final String INDEX = "patients";
+    private static final String[] SCORE_MODES = {"fellegi-sunter", "bayes", "multiply", "sum"};
+    private static final String[] FIELDS = {"given_name", "family_name", "address", "birth_date"};
+    private static final String[] MATCHERS = {"jaro-winkler-similarity", "levenshtein", "dice-similarity", "dateDamerau"};
+    private static final double[] THRESHOLDS = {0.85, 2.0, 0.6, 0.8};
+    private static final int BULK_SIZE = 5000;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final String baseUri;
+
+    private LoadTest(String cluster) {
+        this.baseUri = "http://" + cluster;
+    }
+
+    /**
+     * Runs the load test. The options are:
+     * <ul>
+     *     <li><code>loadtest.cluster</code>: the host and port of the node, required.</li>
+     *     <li><code>loadtest.output</code>: the file the results are written to, required.</li>
+     *     <li><code>loadtest.records</code>: the number of records to index, 100000 by default.</li>
+     *     <li><code>loadtest.duplicate_rate</code>: the share of records that duplicate another one, 0.1 by default.</li>
+     *     <li><code>loadtest.typo_rate</code>: the probability that a value of a duplicate or of a search has an error,
+     *     0.33 by default.</li>
+     *     <li><code>loadtest.queries</code>: the number of searches per score mode, 2000 by default.</li>
+     *     <li><code>loadtest.concurrency</code>: the number of searches in flight, 8 by default.</li>
+     *     <li><code>loadtest.seed</code>: the seed of the records and searches, 42 by default.</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws Exception {
+        String cluster = required("loadtest.cluster");
+        Path output = Paths.get(required("loadtest.output"));
+        int records = Integer.parseInt(System.getProperty("loadtest.records", "100000"));
+        double duplicateRate = Double.parseDouble(System.getProperty("loadtest.duplicate_rate", "0.1"));
+        double typoRate = Double.parseDouble(System.getProperty("loadtest.typo_rate", "0.33"));
+        int queries = Integer.parseInt(System.getProperty("loadtest.queries", "2000"));
+        int concurrency = Integer.parseInt(System.getProperty("loadtest.concurrency", "8"));
+        long seed = Long.parseLong(System.getProperty("loadtest.seed", "42"));
+
+        LoadTest loadTest = new LoadTest(cluster);
+        SyntheticCorpus corpus = new SyntheticCorpus(records, seed, typoRate);
+        loadTest.createIndex();
+        long loadStart = System.nanoTime();
+        loadTest.load(corpus, records, duplicateRate, new Random(seed));
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart);
+
+        XContentBuilder report = jsonBuilder().prettyPrint().startObject();
+        report.field("plugin_version", System.getProperty("loadtest.plugin_version", "unknown"));
+        report.field("records", records);
+        report.field("duplicate_rate", duplicateRate);
+        report.field("typo_rate", typoRate);
+        report.field("seed", seed);
+        report.field("concurrency", concurrency);
+        report.field("load_time_ms", loadMillis);
+        report.startArray("score_modes");
+        for (String scoreMode : SCORE_MODES) {
+            loadTest.replay(corpus, scoreMode, queries, concurrency, new Random(seed + 1), report);
+        }
+        report.endArray().endObject();
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Files.write(output, Strings.toString(report).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String required(String name) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            throw new IllegalArgumentException("The system property [" + name + "] is required");
+        }
+        return value;
+    }
+
+    private void createIndex() throws IOException, InterruptedException {
+        XContentBuilder index = jsonBuilder().startObject();
+        index.startObject("settings")
+                .field("number_of_shards", 1)
+                .field("number_of_replicas", 0)
+                .startObject("analysis").startObject("normalizer").startObject("lowercase")
+                .field("type", "custom").array("filter", "lowercase")
+                .endObject().endObject().endObject()
+                .endObject();
+        index.startObject("mappings").startObject("properties");
+        for (int field = 0; field < SyntheticCorpus.BIRTH_DATE; field++) {
+            index.startObject(FIELDS[field]).field("type", "keyword").field("normalizer", "lowercase").endObject();
+        }
+        index.startObject(FIELDS[SyntheticCorpus.BIRTH_DATE]).field("type", "date").field("format", "yyyy-MM-dd").endObject();
+        index.endObject().endObject().endObject();
+
+        send("DELETE", "/" + INDEX + "?ignore_unavailable=true", null);
+        send("PUT", "/" + INDEX, Strings.toString(index));
+    }
+
+    private void load(SyntheticCorpus corpus, int records, double duplicateRate, Random random)
+            throws IOException, InterruptedException {
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            String[] values = corpus.record(i);
+            if (i > 0 && random.nextDouble() < duplicateRate) {
+                // a misspelled copy of a record indexed before
+                int original = random.nextInt(i);
+                values = corpus.variant(original).clone();
+                values[SyntheticCorpus.BIRTH_DATE] = validDate(values, corpus.record(original));
+            }
+            XContentBuilder document = jsonBuilder().startObject();
+            for (int field = 0; field < SyntheticCorpus.FIELDS; field++) {
+                document.field(FIELDS[field], values[field]);
+            }
+            bulk.append("{\"index\":{}}\n").append(Strings.toString(document.endObject())).append('\n');
+            if ((i + 1) % BULK_SIZE == 0 || i == records - 1) {
+                Map<String, Object> response = send("POST", "/" + INDEX + "/_bulk", bulk.toString());
+                if (Boolean.TRUE.equals(response.get("errors"))) {
+                    throw new IllegalStateException("Indexing the records failed: " + response);
+                }
+                bulk.setLength(0);
+            }
+        }
+        send("POST", "/" + INDEX + "/_refresh", null);
+        send("POST", "/" + INDEX + "/_forcemerge?max_num_segments=1", null);
+    }
+
+    /*
+     * A swapped day and month may not be a valid date, which could not have been indexed in a date field.
+     */
+    private static String validDate(String[] variant, String[] record) {
+        try {
+            LocalDate.parse(variant[SyntheticCorpus.BIRTH_DATE]);
+            return variant[SyntheticCorpus.BIRTH_DATE];
+        } catch (DateTimeParseException e) {
+            return record[SyntheticCorpus.BIRTH_DATE];
+        }
+    }
+
+    private void replay(SyntheticCorpus corpus, String scoreMode, int queries, int concurrency, Random random,
+                        XContentBuilder report) throws Exception {
+        String[] searches = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            searches[i] = search(corpus.variant(random.nextInt(corpus.size())), scoreMode);
+        }
+        // warm up the node with a tenth of the searches before measuring
+        run(searches, Math.max(1, queries / 10), concurrency, new long[queries]);
+
+        Map<String, long[]> gcBefore = gcCollectors();
+        AtomicLong maxHeapUsed = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            long heapUsed = (long) jvm().get("heap_used_in_bytes");
+            maxHeapUsed.accumulateAndGet(heapUsed, Math::max);
+        }, 0, 250, TimeUnit.MILLISECONDS);
+        long[] latencies = new long[queries];
+        long start = System.nanoTime();
+        try {
+            run(searches, queries, concurrency, latencies);
+        } finally {
+            sampler.shutdown();
+            sampler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - start;
+        Map<String, long[]> gcAfter = gcCollectors();
+
+        Arrays.sort(latencies);
+        report.startObject();
+        report.field("score_mode", scoreMode);
+        report.field("queries", queries);
+        report.field("duration_ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        report.field("qps", queries / (elapsed / 1e9));
+        report.startObject("latency_ms")
+                .field("p50", percentile(latencies, 0.50))
+                .field("p90", percentile(latencies, 0.90))
+                .field("p99", percentile(latencies, 0.99))
+                .field("max", latencies[queries - 1] / 1e6)
+                .endObject();
+        report.startObject("heap")
+                .field("max_used_bytes", maxHeapUsed.get())
+                .field("max_bytes", jvm().get("heap_max_in_bytes"))
+                .endObject();
+        report.startObject("gc");
+        for (Map.Entry<String, long[]> collector : gcAfter.entrySet()) {
+            long[] before = gcBefore.getOrDefault(collector.getKey(), new long[2]);
+            report.startObject(collector.getKey())
+                    .field("collection_count", collector.getValue()[0] - before[0])
+                    .field("collection_time_ms", collector.getValue()[1] - before[1])
+                    .endObject();
+        }
+        report.endObject();
+        report.endObject();
+    }
+
+    /*
+     * Sends the first count searches with the given number in flight, and records the latency of each.
+     */
+    private void run(String[] searches, int count, int concurrency, long[] latencies) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        AtomicInteger next = new AtomicInteger();
+        try {
+            Future<?>[] workers = new Future<?>[concurrency];
+            for (int worker = 0; worker < concurrency; worker++) {
+                workers[worker] = executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                        long start = System.nanoTime();
+                        send("POST", "/" + INDEX + "/_search", searches[i]);
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+
+    /*
+     * A search for the records close to the given values: records with a similar given or family name are scored
+     * with a matcher on each field, as a registration desk would look for a returning patient.
+     */
+    private static String search(String[] values, String scoreMode) throws IOException {
+        XContentBuilder search = jsonBuilder().startObject().field("size", 10);
+        search.startObject("query").startObject("function_score");
+        search.startObject("query").startObject("bool").startArray("should");
+        for (int field = 0; field < SyntheticCorpus.ADDRESS; field++) {
+            search.startObject().startObject("fuzzy").startObject(FIELDS[field])
+                    .field("value", values[field].trim().toLowerCase(Locale.ROOT))
+                    .field("fuzziness", "AUTO")
+                    .endObject().endObject().endObject();
+        }
+        search.endArray().field("minimum_should_match", 1).endObject().endObject();
+        search.startObject("script_score").startObject("script")
+                .field("source", "string_similarity")
+                .field("lang", "similarity_scripts")
+                .startObject("params")
+                .field("score_mode", scoreMode)
+                .field("base_score", "fellegi-sunter".equals(scoreMode) ? 100.0 : 0.0)
+                .field("field_access", "doc_values");
+        search.startArray("matchers");
+        for (int field = 0; field < SyntheticCorpus.FIELDS; field++) {
+            search.startObject()
+                    .field("field", FIELDS[field])
+                    .field("value", values[field])
+                    .field("matcher", MATCHERS[field]);
+            switch (scoreMode) {
+                case "fellegi-sunter":
+                    search.field("threshold", THRESHOLDS[field]).field("m_value", 0.9).field("u_value", 0.05);
+                    break;
+                case "bayes":
+                    search.field("high", 0.9).field("low", 0.1);
+                    break;
+                default:
+                    search.field("weight", 1.0);
+                    break;
+            }
+            search.endObject();
+        }
+        search.endArray().endObject().endObject().endObject();
+        search.field("boost_mode", "replace");
+        search.endObject().endObject().endObject();
+        return Strings.toString(search);
+    }
+
+    /*
+     * The heap figures of the first node.
+     */
+    private Map<String, Object> jvm() {
+        try {
+            Map<String, Object> mem = nodeJvm("mem");
+            Map<String, Object> heap = new HashMap<>();
+            heap.put("heap_used_in_bytes", ((Number) mem.get("heap_used_in_bytes")).longValue());
+            heap.put("heap_max_in_bytes", ((Number) mem.get("heap_max_in_bytes")).longValue());
+            return heap;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * The collection count and time of each garbage collector of the first node.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, long[]> gcCollectors() throws IOException, InterruptedException {
+        Map<String, Object> collectors = (Map<String, Object>) nodeJvm("gc").get("collectors");
+        Map<String, long[]> counts = new HashMap<>();
+        for (Map.Entry<String, Object> collector : collectors.entrySet()) {
+            Map<String, Object> stats = (Map<String, Object>) collector.getValue();
+            counts.put(collector.getKey(), new long[] {
+                ((Number) stats.get("collection_count")).longValue(),
+                ((Number) stats.get("collection_time_in_millis")).longValue()
+            });
+        }
+        return counts;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> nodeJvm(String section) throws IOException, InterruptedException {
+        Map<String, Object> nodes = (Map<String, Object>) send("GET", "/_nodes/stats/jvm", null).get("nodes");
+        Map<String, Object> node = (Map<String, Object>) nodes.values().iterator().next();
+        return (Map<String, Object>) ((Map<String, Object>) node.get("jvm")).get(section);
+    }
+
+    private Map<String, Object> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUri + path))
+                .header("Content-Type", path.endsWith("/_bulk") ? "application/x-ndjson" : "application/json")
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() >= 300) {
+            throw new IllegalStateException(method + " " + path + " failed with " + response.statusCode() + ": "
+                    + response.body());
+        }
+        return XContentHelper.convertToMap(JsonXContent.jsonXContent, response.body(), false);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import java.util.Arrays;
+
+/**
+ * A query string of at most 64 characters encoded as one bitmask per character, so that the Levenshtein distance
+ * (Myers / Hyyro) and the length of the longest common subsequence (Allison-Dix / Hyyro) against another string are
+ * computed a whole column at a time in a single machine word. Comparing against a string of length n then takes
+ * O(n) word operations and no allocation.
+ */
+final class BitParallelPattern {
+
+    /**
+     * The longest pattern that fits in a single word.
+     */
+    static final int MAX_LENGTH = Long.SIZE;
+
+    private final String pattern;
+    private final long last;
+    private final long lengthMask;
+
+    /*
+     * The bitmask of the positions of each character in the pattern. ASCII characters are looked up directly and the
+     * others by binary search.
+     */
+    private final long[] asciiMasks = new long[128];
+    private final char[] otherChars;
+    private final long[] otherMasks;
+
+    BitParallelPattern(String pattern) {
+        int length = pattern.length();
+        if (length == 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("The pattern must be between 1 and " + MAX_LENGTH + " characters long");
+        }
+        this.pattern = pattern;
+        this.last = 1L << (length - 1);
+        this.lengthMask = length == MAX_LENGTH ? -1L : (1L << length) - 1;
+
+        char[] others = new char[length];
+        int otherCount = 0;
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (c < asciiMasks.length) {
+                asciiMasks[c] |= 1L << i;
+            } else {
+                others[otherCount++] = c;
+            }
+        }
+        others = Arrays.copyOf(others, otherCount);
+        Arrays.sort(others);
+        int distinct = 0;
+        for (int i = 0; i < otherCount; i++) {
+            if (distinct == 0 || others[distinct - 1] != others[i]) {
+                others[distinct++] = others[i];
+            }
+        }
+        this.otherChars = Arrays.copyOf(others, distinct);
+        this.otherMasks = new long[distinct];
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (c >= asciiMasks.length) {
+                otherMasks[Arrays.binarySearch(otherChars, c)] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * @return true if the string is short enough to be used as a pattern.
+     */
+    static boolean fits(String pattern) {
+        return pattern.length() > 0 && pattern.length() <= MAX_LENGTH;
+    }
+
+    String pattern() {
+        return pattern;
+    }
+
+    int length() {
+        return pattern.length();
+    }
+
+    private long mask(char c) {
+        if (c < asciiMasks.length) {
+            return asciiMasks[c];
+        }
+        int index = Arrays.binarySearch(otherChars, c);
+        return index < 0 ? 0L : otherMasks[index];
+    }
+
+    /**
+     * @return the Levenshtein distance between the pattern and the text.
+     */
+    int levenshtein(String text) {
+        long pv = -1L;
+        long mv = 0L;
+        int score = pattern.length();
+        for (int j = 0; j < text.length(); j++) {
+            long eq = mask(text.charAt(j));
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
+            }
+            // the first row of the matrix grows by one with each character of the text
+            ph = (ph << 1) | 1L;
+            mh = mh << 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+        return score;
+    }
+
+    /**
+     * @return the length of the longest common subsequence of the pattern and the text.
+     */
+    int longestCommonSubsequence(String text) {
+        long v = -1L;
+        for (int j = 0; j < text.length(); j++) {
+            long u = v & mask(text.charAt(j));
+            v = (v + u) | (v - u);
+        }
+        return pattern.length() - Long.bitCount(v & lengthMask);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Edit distances that only need to be exact up to a limit. Each method returns the same distance as the
+ * corresponding matcher of the string similarity library when that distance is at most <code>limit</code>, and
+ * <code>limit + 1</code> otherwise.
+ * <p>
+ * Since the distance between two prefixes can never be smaller than the difference of their lengths, only the
+ * diagonal band of cells with <code>|i - j| &lt;= limit</code> is computed, and since the smallest value of a row
+ * never decreases in the following rows, the computation stops as soon as a whole row is past the limit. The rows
+ * are kept in the working memory of the thread, see {@link Scratch}.
+ */
+public final class BoundedEditDistance {
+
+    private BoundedEditDistance() {
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.Levenshtein
+     */
+    public static int levenshtein(String s1, String s2, int limit) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int n = s1.length();
+        int m = s2.length();
+        int inf = limit + 1;
+        if (Math.abs(n - m) > limit) {
+            return inf;
+        }
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+
+        Scratch scratch = Scratch.get();
+        int[] previous = scratch.ints(0, m + 1);
+        int[] current = scratch.ints(1, m + 1);
+        Arrays.fill(previous, 0, m + 1, inf);
+        Arrays.fill(current, 0, m + 1, 0);
+        for (int j = 0; j <= Math.min(m, limit); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - limit);
+            int to = Math.min(m, i + limit);
+            current[from - 1] = from == 1 && i <= limit ? i : inf;
+            int rowMin = current[from - 1];
+            char c1 = s1.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int cost = c1 == s2.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                current[j] = Math.min(d, inf);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return inf;
+            }
+            if (to < m) {
+                current[to + 1] = inf;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.OptimalStringAlignment
+     */
+    public static int optimalStringAlignment(String s1, String s2, int limit) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int n = s1.length();
+        int m = s2.length();
+        int inf = limit + 1;
+        if (Math.abs(n - m) > limit) {
+            return inf;
+        }
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+
+        // rows i - 2, i - 1 and i of the distance matrix
+        Scratch scratch = Scratch.get();
+        int[] beforePrevious = scratch.ints(0, m + 1);
+        int[] previous = scratch.ints(1, m + 1);
+        int[] current = scratch.ints(2, m + 1);
+        Arrays.fill(beforePrevious, 0, m + 1, inf);
+        Arrays.fill(previous, 0, m + 1, inf);
+        Arrays.fill(current, 0, m + 1, 0);
+        for (int j = 0; j <= Math.min(m, limit); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - limit);
+            int to = Math.min(m, i + limit);
+            current[from - 1] = from == 1 && i <= limit ? i : inf;
+            int rowMin = current[from - 1];
+            char c1 = s1.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int cost = c1 == s2.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j - 1] + cost, current[j - 1] + 1), previous[j] + 1);
+                if (i > 1 && j > 1 && c1 == s2.charAt(j - 2) && s1.charAt(i - 2) == s2.charAt(j - 1)) {
+                    d = Math.min(d, beforePrevious[j - 2] + cost);
+                }
+                current[j] = Math.min(d, inf);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return inf;
+            }
+            if (to < m) {
+                current[to + 1] = inf;
+            }
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.Damerau
+     */
+    public static int damerau(String s1, String s2, int limit) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int n = s1.length();
+        int m = s2.length();
+        int inf = limit + 1;
+        if (Math.abs(n - m) > limit) {
+            return inf;
+        }
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+
+        int width = m + 2;
+        Scratch scratch = Scratch.get();
+        // h[(i + 1) * width + j + 1] is the distance between the first i characters of s1 and the first j of s2
+        int[] h = scratch.ints(0, (n + 2) * width);
+        Arrays.fill(h, 0, (n + 2) * width, 0);
+        // the last row of s1 where each character was seen
+        int[] da = scratch.charTable();
+        for (int i = 0; i <= n; i++) {
+            h[(i + 1) * width] = inf;
+            h[(i + 1) * width + 1] = i;
+        }
+        for (int j = 0; j <= m; j++) {
+            h[j + 1] = inf;
+            h[width + j + 1] = j;
+        }
+        try {
+            for (int i = 1; i <= n; i++) {
+                int from = Math.max(1, i - limit);
+                int to = Math.min(m, i + limit);
+                int rowMin = from == 1 ? i : inf;
+                int db = 0;
+                char c1 = s1.charAt(i - 1);
+                // a transposition from a match further left than this would cost more than the limit
+                for (int j = Math.max(1, from - limit - 1); j <= to; j++) {
+                    char c2 = s2.charAt(j - 1);
+                    if (j < from) {
+                        if (c1 == c2) {
+                            db = j;
+                        }
+                        continue;
+                    }
+                    int i1 = da[c2];
+                    int j1 = db;
+                    int cost = 1;
+                    if (c1 == c2) {
+                        cost = 0;
+                        db = j;
+                    }
+                    int d = h[i * width + j] + cost;
+                    if (j - 1 == 0 || i - (j - 1) <= limit) {
+                        d = Math.min(d, h[(i + 1) * width + j] + 1);
+                    }
+                    if (i - 1 == 0 || j - (i - 1) <= limit) {
+                        d = Math.min(d, h[i * width + j + 1] + 1);
+                    }
+                    if (i1 == 0 || j1 == 0 || Math.abs(i1 - j1) <= limit) {
+                        d = Math.min(d, h[i1 * width + j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+                    }
+                    h[(i + 1) * width + j + 1] = Math.min(d, inf);
+                    rowMin = Math.min(rowMin, h[(i + 1) * width + j + 1]);
+                }
+                if (rowMin > limit) {
+                    return inf;
+                }
+                da[c1] = i;
+            }
+            return h[(n + 1) * width + m + 1];
+        } finally {
+            for (int i = 0; i < n; i++) {
+                da[s1.charAt(i)] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+/**
+ * A site specific matcher contributed by another plugin through {@link SimilarityMatcherProvider}. Matchers are
+ * called with values that are already trimmed and lower cased.
+ */
+public interface CustomMatcher {
+
+    /**
+     * Match two values.
+     *
+     * @param left  the query value.
+     * @param right the document value.
+     *
+     * @return the match score.
+     */
+    double score(String left, String right);
+
+    /**
+     * @return true if the score is a distance, where lower scores are better matches, and false if it is a
+     * similarity.
+     */
+    boolean isDistance();
+
+    /**
+     * The score of two equal values. Documents whose value is exactly the query value get this score without
+     * calling {@link #score(String, String)}.
+     */
+    default double exactScore() {
+        return isDistance() ? 0.0 : 1.0;
+    }
+
+    /**
+     * The smallest score the matcher can give. Searches with a <code>min_score</code> only skip the rest of the
+     * matchers of a document early when the range of every score is known, so matchers should override this and
+     * {@link #maxScore()} when their scores are bounded.
+     */
+    default double minScore() {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * The largest score the matcher can give, see {@link #minScore()}.
+     */
+    default double maxScore() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Matchers that keep scratch state between calls must return false, every search thread then gets its own
+     * instance from the supplier the matcher was registered with.
+     */
+    default boolean isThreadSafe() {
+        return true;
+    }
+}
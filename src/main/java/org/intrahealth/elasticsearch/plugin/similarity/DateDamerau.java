@@ -20,15 +20,35 @@ package org.intrahealth.elasticsearch.plugin.similarity;
 
 import info.debatty.java.stringsimilarity.interfaces.NormalizedStringSimilarity;
 import net.jcip.annotations.Immutable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import java.util.Locale;
+
+/**
+ * Compares two <code>yyyy-MM-dd</code> dates component by component, giving partial credit to components whose
+ * digits are transposed and to dates whose day and month are swapped.
+ * <p>
+ * Dates are handled as packed ints (see {@link #parse(String)} and {@link #fromEpochDay(long)}) so that comparing
+ * dates, including dates read from doc values, does not allocate.
+ */
 @Immutable
 public class DateDamerau implements NormalizedStringSimilarity {
 
+    /**
+     * Returned by {@link #parse(String)} and {@link #fromEpochDay(long)} for values that are not a valid date.
+     */
+    public static final int INVALID = -1;
+
+    private static final int YEAR_SHIFT = 14;
+    private static final int MONTH_SHIFT = 7;
+    private static final int COMPONENT_MASK = (1 << MONTH_SHIFT) - 1;
+
+    private static final double WEIGHT_YEAR = 5.0;
+    private static final double WEIGHT_MONTH = 4.0;
+    private static final double WEIGHT_DAY = 3.0;
+
     /**
      * Checks if the day part of date is transposed
-     * 
+     *
      * @param s1 The first string to compare.
      * @param s2 The second string to compare.
      * @return The computed distance.
@@ -49,45 +69,34 @@ public class DateDamerau implements NormalizedStringSimilarity {
             return 1;
         }
 
-        String pattern = "\\d{4}-\\d{2}-\\d{2}";
-
-        if (isValidFormat(s1, pattern) && (isValidFormat(s2, pattern))) {
-
-            int[] array1 = createDateArray(s1);
-            int[] array2 = createDateArray(s2);
-
-            return compareArrays(array1, array2);
-
-        } else {
+        int date1 = parse(s1);
+        int date2 = parse(s2);
+        if (date1 == INVALID || date2 == INVALID) {
             throw new IllegalArgumentException("Invalid format: " + s1 + " " + s2);
         }
-
-    }
-
-    private static boolean isValidFormat(String input, String pattern) {
-        Pattern regex = Pattern.compile(pattern);
-        Matcher matcher = regex.matcher(input);
-        return matcher.matches();
+        return similarity(date1, date2);
     }
 
-    // Function to compare two arrays
-    private static double compareArrays(int[] arr1, int[] arr2) {
-        double weightYear = 5.0;
-        double weightMonth = 4.0;
-        double weightDay = 3.0;
-
+    /**
+     * Compares two packed dates.
+     *
+     * @param date1 The first date to compare.
+     * @param date2 The second date to compare.
+     * @return The computed similarity.
+     */
+    public static double similarity(int date1, int date2) {
         // Step 1: Calculate values for each component
-        double yearValue = compareComponents(arr1[0], arr2[0]);
-        double monthValue = compareComponents(arr1[1], arr2[1]);
-        double dayValue = compareComponents(arr1[2], arr2[2]);
+        double yearValue = compareComponents(year(date1), year(date2));
+        double monthValue = compareComponents(month(date1), month(date2));
+        double dayValue = compareComponents(day(date1), day(date2));
 
         // Step 2: Calculate main value (value A)
-        double mainValue = ((yearValue * weightYear) + (monthValue * weightMonth) + (dayValue * weightDay))
-                / (weightYear + weightMonth + weightDay);
+        double mainValue = ((yearValue * WEIGHT_YEAR) + (monthValue * WEIGHT_MONTH) + (dayValue * WEIGHT_DAY))
+                / (WEIGHT_YEAR + WEIGHT_MONTH + WEIGHT_DAY);
 
         // Step 3: Calculate value B
         double valueB = 0.0;
-        if (arr1[0] == arr2[0] && arr1[2] == arr2[1] && arr1[1] == arr2[2]) {
+        if (year(date1) == year(date2) && day(date1) == month(date2) && month(date1) == day(date2)) {
             valueB = 0.9;
         }
 
@@ -95,6 +104,86 @@ public class DateDamerau implements NormalizedStringSimilarity {
         return Math.max(mainValue, valueB);
     }
 
+    /**
+     * Parses a <code>yyyy-MM-dd</code> date by scanning its characters.
+     *
+     * @param value The string to parse.
+     * @return The packed date, or {@link #INVALID} if the string is not in the expected format.
+     */
+    public static int parse(String value) {
+        if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return INVALID;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 7);
+        int day = digits(value, 8, 10);
+        if (year < 0 || month < 0 || day < 0) {
+            return INVALID;
+        }
+        return pack(year, month, day);
+    }
+
+    /**
+     * Converts a number of days since 1970-01-01 to a date of the proleptic Gregorian calendar.
+     *
+     * @param epochDay The number of days since the epoch.
+     * @return The packed date, or {@link #INVALID} if the year does not have four digits.
+     */
+    public static int fromEpochDay(long epochDay) {
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return INVALID;
+        }
+        return pack((int) year, month, day);
+    }
+
+    /**
+     * Formats a packed date as <code>yyyy-MM-dd</code>.
+     */
+    public static String format(int date) {
+        return String.format(Locale.ROOT, "%04d-%02d-%02d", year(date), month(date), day(date));
+    }
+
+    private static int pack(int year, int month, int day) {
+        return (year << YEAR_SHIFT) | (month << MONTH_SHIFT) | day;
+    }
+
+    private static int year(int date) {
+        return date >>> YEAR_SHIFT;
+    }
+
+    private static int month(int date) {
+        return (date >>> MONTH_SHIFT) & COMPONENT_MASK;
+    }
+
+    private static int day(int date) {
+        return date & COMPONENT_MASK;
+    }
+
+    /*
+     * Parses the ASCII digits between from (inclusive) and to (exclusive), returns -1 if there is any other character.
+     */
+    private static int digits(String value, int from, int to) {
+        int number = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
     // Function to compare individual components
     private static double compareComponents(int component1, int component2) {
         if (component1 == component2) {
@@ -110,28 +199,27 @@ public class DateDamerau implements NormalizedStringSimilarity {
     private static boolean isTransposition(int num1, int num2) {
         // Handle years
         if (num1 > 31 && num2 > 31) {
-            String strNum1 = String.valueOf(num1);
-            String strNum2 = String.valueOf(num2);
-
-            // Check if the first two digits are the same
-            if (strNum1.charAt(0) == strNum2.charAt(0) && strNum1.charAt(1) == strNum2.charAt(1)) {
-                // Extract the last two digits from both numbers
-                num1 = Integer.parseInt(strNum1.substring(2));
-                num2 = Integer.parseInt(strNum2.substring(2));
-            } else {
+            // Check if the first two digits are the same and keep the remaining digits of both numbers
+            int scale1 = leadingTwoDigitsScale(num1);
+            int scale2 = leadingTwoDigitsScale(num2);
+            if (scale1 == 1 || scale2 == 1 || num1 / scale1 != num2 / scale2) {
                 return false;
             }
+            num1 = num1 % scale1;
+            num2 = num2 % scale2;
         }
         return num1 % 10 == num2 / 10 && num1 / 10 == num2 % 10;
     }
 
-    private static int[] createDateArray(String dateString) {
-        String[] components = dateString.split("-");
-        int[] dateArray = new int[components.length];
-        for (int i = 0; i < components.length; i++) {
-            dateArray[i] = Integer.parseInt(components[i]);
+    /*
+     * The power of ten that leaves the first two digits of the number when dividing by it.
+     */
+    private static int leadingTwoDigitsScale(int num) {
+        int scale = 1;
+        while (num / scale >= 100) {
+            scale *= 10;
         }
-        return dateArray;
+        return scale;
     }
 
 }
@@ -0,0 +1,249 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+/**
+ * The dynamic programming matchers of the string similarity library, computed in the working memory of the thread
+ * (see {@link Scratch}) instead of in arrays and maps allocated for every comparison. Each method returns exactly
+ * what the library matcher it is named after returns.
+ */
+public final class EditDistance {
+
+    private static final double JARO_WINKLER_THRESHOLD = 0.7;
+    private static final double JARO_WINKLER_COEFFICIENT = 0.1;
+
+    private EditDistance() {
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.Levenshtein
+     */
+    public static int levenshtein(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int n = s1.length();
+        int m = s2.length();
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+        Scratch scratch = Scratch.get();
+        int[] previous = scratch.ints(0, m + 1);
+        int[] current = scratch.ints(1, m + 1);
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 0; i < n; i++) {
+            current[0] = i + 1;
+            char c1 = s1.charAt(i);
+            for (int j = 0; j < m; j++) {
+                int cost = c1 == s2.charAt(j) ? 0 : 1;
+                current[j + 1] = Math.min(current[j] + 1, Math.min(previous[j + 1] + 1, previous[j] + cost));
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.OptimalStringAlignment
+     */
+    public static int optimalStringAlignment(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int n = s1.length();
+        int m = s2.length();
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+        // rows i - 2, i - 1 and i of the distance matrix
+        Scratch scratch = Scratch.get();
+        int[] beforePrevious = scratch.ints(0, m + 1);
+        int[] previous = scratch.ints(1, m + 1);
+        int[] current = scratch.ints(2, m + 1);
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            char c1 = s1.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = c1 == s2.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(previous[j - 1] + cost, Math.min(current[j - 1] + 1, previous[j] + 1));
+                if (i > 1 && j > 1 && c1 == s2.charAt(j - 2) && s1.charAt(i - 2) == s2.charAt(j - 1)) {
+                    d = Math.min(d, beforePrevious[j - 2] + cost);
+                }
+                current[j] = d;
+            }
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.Damerau
+     */
+    public static int damerau(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int n = s1.length();
+        int m = s2.length();
+        int inf = n + m;
+        int width = m + 2;
+        Scratch scratch = Scratch.get();
+        // h[(i + 1) * width + j + 1] is the distance between the first i chars of s1 and the first j chars of s2
+        int[] h = scratch.ints(0, (n + 2) * width);
+        // the last row of s1 where each char was seen, the library keeps them in a map
+        int[] lastRow = scratch.charTable();
+        for (int i = 0; i <= n; i++) {
+            h[(i + 1) * width] = inf;
+            h[(i + 1) * width + 1] = i;
+        }
+        for (int j = 0; j <= m; j++) {
+            h[j + 1] = inf;
+            h[width + j + 1] = j;
+        }
+        h[0] = 0;
+        try {
+            for (int i = 1; i <= n; i++) {
+                int db = 0;
+                char c1 = s1.charAt(i - 1);
+                for (int j = 1; j <= m; j++) {
+                    char c2 = s2.charAt(j - 1);
+                    int i1 = lastRow[c2];
+                    int j1 = db;
+                    int cost = 1;
+                    if (c1 == c2) {
+                        cost = 0;
+                        db = j;
+                    }
+                    int d = Math.min(h[i * width + j] + cost, h[(i + 1) * width + j] + 1);
+                    d = Math.min(d, h[i * width + j + 1] + 1);
+                    d = Math.min(d, h[i1 * width + j1] + (i - i1 - 1) + 1 + (j - j1 - 1));
+                    h[(i + 1) * width + j + 1] = d;
+                }
+                lastRow[c1] = i;
+            }
+            return h[(n + 1) * width + m + 1];
+        } finally {
+            for (int i = 0; i < n; i++) {
+                lastRow[s1.charAt(i)] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the length of the longest common subsequence of the strings.
+     * @see info.debatty.java.stringsimilarity.LongestCommonSubsequence#length(String, String)
+     */
+    public static int longestCommonSubsequence(String s1, String s2) {
+        int n = s1.length();
+        int m = s2.length();
+        Scratch scratch = Scratch.get();
+        int[] previous = scratch.ints(0, m + 1);
+        int[] current = scratch.ints(1, m + 1);
+        for (int j = 0; j <= m; j++) {
+            previous[j] = 0;
+        }
+        current[0] = 0;
+        for (int i = 1; i <= n; i++) {
+            char c1 = s1.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                if (c1 == s2.charAt(j - 1)) {
+                    current[j] = previous[j - 1] + 1;
+                } else {
+                    current[j] = Math.max(current[j - 1], previous[j]);
+                }
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+
+    /**
+     * @see info.debatty.java.stringsimilarity.JaroWinkler#similarity(String, String)
+     */
+    public static double jaroWinkler(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 1;
+        }
+        String max = s1.length() > s2.length() ? s1 : s2;
+        String min = max == s1 ? s2 : s1;
+        int range = Math.max(max.length() / 2 - 1, 0);
+        Scratch scratch = Scratch.get();
+        // the position in max each char of min is matched with, or -1
+        int[] matchIndexes = scratch.ints(0, min.length());
+        boolean[] matchFlags = scratch.flags(max.length());
+        int matches = 0;
+        for (int mi = 0; mi < min.length(); mi++) {
+            matchIndexes[mi] = -1;
+            char c1 = min.charAt(mi);
+            for (int xi = Math.max(mi - range, 0), xn = Math.min(mi + range + 1, max.length()); xi < xn; xi++) {
+                if (matchFlags[xi] == false && c1 == max.charAt(xi)) {
+                    matchIndexes[mi] = xi;
+                    matchFlags[xi] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        // walk the matched chars of both strings in order, as the library does with two copies of them
+        int transpositions = 0;
+        for (int mi = 0, xi = 0; mi < min.length(); mi++) {
+            if (matchIndexes[mi] != -1) {
+                while (matchFlags[xi] == false) {
+                    xi++;
+                }
+                if (min.charAt(mi) != max.charAt(xi)) {
+                    transpositions++;
+                }
+                xi++;
+            }
+        }
+        int prefix = 0;
+        for (int mi = 0; mi < min.length(); mi++) {
+            if (s1.charAt(mi) == s2.charAt(mi)) {
+                prefix++;
+            } else {
+                break;
+            }
+        }
+
+        // the library computes the Jaro similarity in float precision
+        float m = matches;
+        if (m == 0) {
+            return 0f;
+        }
+        double j = ((m / s1.length() + m / s2.length() + (m - transpositions / 2) / m)) / 3;
+        double jw = j;
+        if (j > JARO_WINKLER_THRESHOLD) {
+            jw = j + Math.min(JARO_WINKLER_COEFFICIENT, 1.0 / max.length()) * prefix * (1 - j);
+        }
+        return jw;
+    }
+}
@@ -29,15 +29,23 @@ import info.debatty.java.stringsimilarity.NGram;
 import info.debatty.java.stringsimilarity.NormalizedLevenshtein;
 import info.debatty.java.stringsimilarity.OptimalStringAlignment;
 import info.debatty.java.stringsimilarity.QGram;
+import info.debatty.java.stringsimilarity.ShingleBased;
 import info.debatty.java.stringsimilarity.SorensenDice;
 import info.debatty.java.stringsimilarity.interfaces.NormalizedStringSimilarity;
 import info.debatty.java.stringsimilarity.interfaces.NormalizedStringDistance;
 import info.debatty.java.stringsimilarity.interfaces.StringDistance;
 import info.debatty.java.stringsimilarity.interfaces.StringSimilarity;
 
+import org.apache.lucene.util.ArrayUtil;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.intrahealth.elasticsearch.plugin.similarity.PhoneticSimilarity.Algorithm;
+
+import java.time.LocalDate;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * This class serves as the interface to the string similarity library which provides the string similarity
@@ -50,18 +58,55 @@ public class MatcherService {
     }
 
     private static class StringComparisonMatcher {
-        private StringDistance distanceMatcher;
-        private StringSimilarity similarityMatcher;
-        private Scorer scorer;
+        private final Scorer scorer;
+        private final boolean distance;
+        private final double exactScore;
+        private final double minScore;
+        private final double maxScore;
 
         StringComparisonMatcher( StringSimilarity matcher ) {
-            this.similarityMatcher = matcher;
-            this.scorer = (String left, String right) -> this.similarityMatcher.similarity( left, right );
+            this(matcher, matcher::similarity);
         }
 
         StringComparisonMatcher( StringDistance matcher ) {
-            this.distanceMatcher = matcher;
-            this.scorer = (String left, String right) -> this.distanceMatcher.distance( left, right );
+            this(matcher, matcher::distance);
+        }
+
+        /*
+         * A matcher of the library whose scores are computed by the given scorer instead, see {@link EditDistance}.
+         * The scores of the library are never negative, and at most 1 for the normalized matchers.
+         */
+        StringComparisonMatcher( StringSimilarity matcher, Scorer scorer ) {
+            this(scorer, false, 0.0, matcher instanceof NormalizedStringSimilarity ? 1.0 : Double.POSITIVE_INFINITY);
+        }
+
+        StringComparisonMatcher( StringDistance matcher, Scorer scorer ) {
+            this(scorer, true, 0.0, matcher instanceof NormalizedStringDistance ? 1.0 : Double.POSITIVE_INFINITY);
+        }
+
+        /*
+         * A matcher whose scores are between the given bounds.
+         */
+        StringComparisonMatcher( Scorer scorer, boolean distance, double minScore, double maxScore ) {
+            this.scorer = scorer;
+            this.distance = distance;
+            this.exactScore = distance ? 0.0 : 1.0;
+            this.minScore = minScore;
+            this.maxScore = maxScore;
+        }
+
+        StringComparisonMatcher( Supplier<CustomMatcher> supplier ) {
+            CustomMatcher matcher = supplier.get();
+            if (matcher.isThreadSafe()) {
+                this.scorer = matcher::score;
+            } else {
+                ThreadLocal<CustomMatcher> perThread = ThreadLocal.withInitial(supplier);
+                this.scorer = (String left, String right) -> perThread.get().score( left, right );
+            }
+            this.distance = matcher.isDistance();
+            this.exactScore = matcher.exactScore();
+            this.minScore = matcher.minScore();
+            this.maxScore = matcher.maxScore();
         }
 
         public double score( String left, String right ) {
@@ -70,9 +115,362 @@ public class MatcherService {
     }
 
     /**
-     * A cache for any matchers that we've already loaded so that we do not need to load them each time.
+     * A matcher bound to a single query value. The query value is normalized, and for the shingle based matchers
+     * turned into its shingle profile, once when the matcher is prepared so that scoring a document only has to
+     * process the document value.
+     */
+    public interface PreparedMatcher {
+        /**
+         * Match the prepared query value against a document value.
+         *
+         * @param value the document value. It is normalized the same way as the query value.
+         *
+         * @return the match score.
+         */
+        double score(String value);
+
+        /**
+         * The score of a document value when it is known without running the matcher, for instance because the
+         * lengths of the values are too far apart for an edit distance to be within its threshold.
+         *
+         * @param value the document value.
+         *
+         * @return the match score, or NaN if the matcher has to run.
+         */
+        default double quickScore(String value) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * A prepared matcher that can also match dates read from doc values without formatting them as strings first.
+     */
+    public interface PreparedDateMatcher extends PreparedMatcher {
+        /**
+         * Match the prepared query value against a document date.
+         *
+         * @param epochDay the document value as a number of days since 1970-01-01.
+         *
+         * @return the match score.
+         */
+        double scoreDate(long epochDay);
+    }
+
+    /**
+     * A shingle based matcher that can also match the hashed shingle profile of a document value, see
+     * {@link ShingleHashes}, instead of building the profile from the value.
      */
-    private Map<String, StringComparisonMatcher> matchers = new HashMap<>();
+    public interface PreparedShingleHashMatcher extends PreparedMatcher {
+        /**
+         * Match the prepared query value against a document value and its hashed shingle profile.
+         *
+         * @param value  the document value.
+         * @param hashes the hashed profile of the normalized document value, in increasing order.
+         * @param length the number of hashes of the profile.
+         *
+         * @return the match score.
+         */
+        double scoreShingles(String value, long[] hashes, int length);
+    }
+
+    /**
+     * A bounded Levenshtein or optimal string alignment matcher. The query and the limit are exposed so that callers
+     * which can enumerate the document values, such as a terms dictionary, can find the values within the limit
+     * with a Levenshtein automaton instead of matching each of them.
+     */
+    public static final class PreparedBoundedEditDistance implements PreparedMatcher {
+
+        private final String query;
+        private final int limit;
+        private final boolean transpositions;
+        private final PreparedMatcher matcher;
+
+        PreparedBoundedEditDistance(String query, int limit, boolean transpositions, PreparedMatcher matcher) {
+            this.query = query;
+            this.limit = limit;
+            this.transpositions = transpositions;
+            this.matcher = matcher;
+        }
+
+        /**
+         * @return the normalized query value.
+         */
+        public String query() {
+            return query;
+        }
+
+        /**
+         * @return the largest distance that is computed exactly, larger distances are only known to be above it.
+         */
+        public int limit() {
+            return limit;
+        }
+
+        /**
+         * @return true if a transposition of two adjacent characters counts as a single edit.
+         */
+        public boolean transpositions() {
+            return transpositions;
+        }
+
+        @Override
+        public double score(String value) {
+            return matcher.score(value);
+        }
+
+        /**
+         * Rules out document values whose length is too far from the length of the query. Only values made of ASCII
+         * characters are checked, since lower casing can change the length of others.
+         */
+        @Override
+        public double quickScore(String value) {
+            int from = 0;
+            int to = value.length();
+            while (from < to && value.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && value.charAt(to - 1) <= ' ') {
+                to--;
+            }
+            for (int i = from; i < to; i++) {
+                if (value.charAt(i) >= 128) {
+                    return Double.NaN;
+                }
+            }
+            return Math.abs(query.length() - (to - from)) > limit ? limit + 1 : Double.NaN;
+        }
+    }
+
+    /**
+     * The matchers by name, built once per node. The map is never modified afterwards so the service can be shared
+     * by all search threads.
+     */
+    private final Map<String, StringComparisonMatcher> matchers;
+
+    /**
+     * The node level score cache, null if there is none.
+     */
+    private final ScoreCache scoreCache;
+
+    /**
+     * The node level counters of the matcher runs.
+     */
+    private final SimilarityStats stats;
+
+    /**
+     * Constructs a service with the built-in matchers only.
+     */
+    public MatcherService() {
+        this(Collections.emptyMap(), null, new SimilarityStats());
+    }
+
+    /**
+     * Constructs a service with the built-in matchers and the given custom matchers.
+     *
+     * @param customMatchers suppliers of the custom matchers by name.
+     * @param scoreCache     the node level score cache, may be null.
+     * @param stats          the node level counters of the matcher runs.
+     */
+    public MatcherService(Map<String, Supplier<CustomMatcher>> customMatchers, ScoreCache scoreCache, SimilarityStats stats) {
+        Map<String, StringComparisonMatcher> matchers = new HashMap<>();
+        matchers.put("cosine-similarity", new StringComparisonMatcher((StringSimilarity) new Cosine()));
+        matchers.put("dice-similarity", new StringComparisonMatcher((StringSimilarity) new SorensenDice()));
+        matchers.put("jaccard-similarity", new StringComparisonMatcher((StringSimilarity) new Jaccard()));
+        matchers.put("jaro-winkler-similarity", new StringComparisonMatcher((StringSimilarity) new JaroWinkler(),
+                EditDistance::jaroWinkler));
+        matchers.put("normalized-levenshtein-similarity", new StringComparisonMatcher((StringSimilarity) new NormalizedLevenshtein(),
+                (left, right) -> 1.0 - normalizedLevenshtein(left, right)));
+        // the LCS distance of two strings is up to the sum of their lengths, twice the longest of them
+        NormalizedLongestCommonSubsequence normalizedLcs = new NormalizedLongestCommonSubsequence();
+        matchers.put("normalized-lcs-similarity", new StringComparisonMatcher(normalizedLcs::similarity, false, -1.0, 1.0));
+        matchers.put("dateDamerau", new StringComparisonMatcher(new DateDamerau()));
+        matchers.put("levenshtein", new StringComparisonMatcher(new Levenshtein(), EditDistance::levenshtein));
+        matchers.put("normalized-levenshtein-distance", new StringComparisonMatcher((StringDistance) new NormalizedLevenshtein(),
+                MatcherService::normalizedLevenshtein));
+        matchers.put("damerau-levenshtein", new StringComparisonMatcher(new Damerau(), EditDistance::damerau));
+        matchers.put("optimal-string-alignment", new StringComparisonMatcher(new OptimalStringAlignment(),
+                EditDistance::optimalStringAlignment));
+        matchers.put("jaro-winkler-distance", new StringComparisonMatcher((StringDistance) new JaroWinkler(),
+                (left, right) -> 1.0 - EditDistance.jaroWinkler(left, right)));
+        matchers.put("longest-common-subsequence", new StringComparisonMatcher(new LongestCommonSubsequence(),
+                MatcherService::longestCommonSubsequence));
+        matchers.put("normalized-lcs-distance", new StringComparisonMatcher(normalizedLcs::distance, true, 0.0, 2.0));
+        matchers.put("metric-lcs", new StringComparisonMatcher(new MetricLCS(), MatcherService::metricLongestCommonSubsequence));
+        matchers.put("ngram", new StringComparisonMatcher(new NGram()));
+        matchers.put("qgram", new StringComparisonMatcher(new QGram()));
+        matchers.put("cosine-distance", new StringComparisonMatcher((StringDistance) new Cosine()));
+        matchers.put("dice-distance", new StringComparisonMatcher((StringDistance) new SorensenDice()));
+        matchers.put("jaccard-distance", new StringComparisonMatcher((StringDistance) new Jaccard()));
+        matchers.put("double-metaphone", new StringComparisonMatcher(new PhoneticSimilarity(Algorithm.DOUBLE_METAPHONE)));
+        matchers.put("nysiis", new StringComparisonMatcher(new PhoneticSimilarity(Algorithm.NYSIIS)));
+        matchers.put("soundex", new StringComparisonMatcher(new PhoneticSimilarity(Algorithm.SOUNDEX)));
+        for (Map.Entry<String, Supplier<CustomMatcher>> entry : customMatchers.entrySet()) {
+            if (matchers.containsKey(entry.getKey())) {
+                throw new IllegalArgumentException("The matcher [" + entry.getKey() + "] is already registered.");
+            }
+            matchers.put(entry.getKey(), new StringComparisonMatcher(entry.getValue()));
+        }
+        this.matchers = Collections.unmodifiableMap(matchers);
+        this.scoreCache = scoreCache;
+        this.stats = stats;
+    }
+
+    /**
+     * @return the node level counters of the matcher runs.
+     */
+    public SimilarityStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return the circuit breaker of the plugin, which the memory held by searches is accounted in, or null if the
+     * service has none.
+     */
+    public CircuitBreaker circuitBreaker() {
+        return scoreCache == null ? null : scoreCache.circuitBreaker();
+    }
+
+    /**
+     * Select the right matcher by its name and prepare it for matching the given query value. Passing a name for
+     * which a matcher does not exist will result in an {@link IllegalArgumentException}.
+     *
+     * @param matcherName the name of the matcher to use.
+     * @param query       the query value that documents will be matched against.
+     *
+     * @return the prepared matcher.
+     */
+    public PreparedMatcher prepare(String matcherName, String query) {
+        String left = normalize(query);
+        switch (matcherName) {
+            case "cosine-similarity":
+                return new PreparedCosine(left, false);
+            case "cosine-distance":
+                return new PreparedCosine(left, true);
+            case "jaccard-similarity":
+                return new PreparedJaccard(left, false);
+            case "jaccard-distance":
+                return new PreparedJaccard(left, true);
+            case "dice-similarity":
+                return new PreparedSorensenDice(left, false);
+            case "dice-distance":
+                return new PreparedSorensenDice(left, true);
+            case "qgram":
+                return new PreparedQGram(left);
+            case "dateDamerau":
+                return new PreparedDateDamerau(left);
+            case "double-metaphone":
+            case "nysiis":
+            case "soundex":
+                PhoneticSimilarity phonetic = new PhoneticSimilarity(phoneticAlgorithm(matcherName));
+                String queryCodes = phonetic.encode(left);
+                return (String value) -> PhoneticSimilarity.agreement(queryCodes, phonetic.encode(normalize(value)));
+            case "levenshtein":
+            case "normalized-levenshtein-distance":
+            case "normalized-levenshtein-similarity":
+            case "longest-common-subsequence":
+            case "normalized-lcs-distance":
+            case "normalized-lcs-similarity":
+            case "metric-lcs":
+                if (BitParallelPattern.fits(left)) {
+                    return new PreparedBitParallel(matcherName, new BitParallelPattern(left));
+                }
+                // fall through to the library for queries that do not fit in a single word
+            default:
+                StringComparisonMatcher matcher = getMatcher(matcherName);
+                return (String value) -> matcher.score(left, normalize(value));
+        }
+    }
+
+    /**
+     * Select the right matcher by its name and prepare it for matching the given query value when the score is only
+     * compared against a threshold. The edit distance matchers then use the bounded variants of
+     * {@link BoundedEditDistance} which give up as soon as the distance is known to be above the threshold. In that
+     * case the returned score is larger than the threshold but not the exact distance.
+     *
+     * @param matcherName the name of the matcher to use.
+     * @param query       the query value that documents will be matched against.
+     * @param threshold   the threshold the score is compared against.
+     *
+     * @return the prepared matcher.
+     */
+    public PreparedMatcher prepare(String matcherName, String query, double threshold) {
+        String left = normalize(query);
+        int limit = (int) Math.max(-1, Math.min(Math.floor(threshold), Integer.MAX_VALUE - 1));
+        switch (matcherName) {
+            case "levenshtein":
+                if (BitParallelPattern.fits(left)) {
+                    BitParallelPattern pattern = new BitParallelPattern(left);
+                    return new PreparedBoundedEditDistance(left, limit, false, (String value) -> {
+                        String right = normalize(value);
+                        return Math.abs(left.length() - right.length()) > limit ? limit + 1 : pattern.levenshtein(right);
+                    });
+                }
+                return new PreparedBoundedEditDistance(left, limit, false,
+                        (String value) -> BoundedEditDistance.levenshtein(left, normalize(value), limit));
+            case "damerau-levenshtein":
+                return (String value) -> BoundedEditDistance.damerau(left, normalize(value), limit);
+            case "optimal-string-alignment":
+                return new PreparedBoundedEditDistance(left, limit, true,
+                        (String value) -> BoundedEditDistance.optimalStringAlignment(left, normalize(value), limit));
+            default:
+                return prepare(matcherName, query);
+        }
+    }
+
+    /**
+     * Prepare a phonetic matcher to match the phonetic codes of documents, computed by
+     * {@link PhoneticSimilarity#encode(String)} when they were indexed, instead of their values.
+     *
+     * @param matcherName the name of a phonetic matcher.
+     * @param query       the query value that documents will be matched against.
+     *
+     * @return the prepared matcher, which takes the codes of a document value.
+     */
+    public PreparedMatcher prepareCodes(String matcherName, String query) {
+        Algorithm algorithm = phoneticAlgorithm(matcherName);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("The matcher [" + matcherName + "] is not a phonetic matcher.");
+        }
+        String queryCodes = new PhoneticSimilarity(algorithm).encode(normalize(query));
+        return (String codes) -> PhoneticSimilarity.agreement(queryCodes, codes);
+    }
+
+    /**
+     * The phonetic algorithm of the given matcher.
+     *
+     * @param matcherName the name of the matcher to use.
+     *
+     * @return the algorithm, or null if the matcher is not a phonetic matcher.
+     */
+    public static Algorithm phoneticAlgorithm(String matcherName) {
+        switch (matcherName) {
+            case "double-metaphone":
+                return Algorithm.DOUBLE_METAPHONE;
+            case "nysiis":
+                return Algorithm.NYSIIS;
+            case "soundex":
+                return Algorithm.SOUNDEX;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Look the scores of a prepared matcher up in the node level score cache before computing them. Date matchers,
+     * which are cheaper than a cache lookup, and matchers of a service without a cache are returned as they are.
+     *
+     * @param matcher the prepared matcher.
+     * @param scope   the name of the matcher, along with anything else that changes its scores such as a threshold.
+     * @param query   the query value the matcher was prepared for.
+     *
+     * @return the caching matcher.
+     */
+    public PreparedMatcher cached(PreparedMatcher matcher, String scope, String query) {
+        if (scoreCache == null || scoreCache.isEnabled() == false || matcher instanceof PreparedDateMatcher) {
+            return matcher;
+        }
+        return scoreCache.wrap(scope, normalize(query), matcher, MatcherService::normalize);
+    }
 
     /**
      * Select the right matcher by its name, match the two strings provided and then return the match score. Passing
@@ -86,7 +484,18 @@ public class MatcherService {
      */
     public double matchScore(String matcherName, String left, String right) {
         StringComparisonMatcher matcher = getMatcher(matcherName);
-        return matcher.score(left.trim().toLowerCase(Locale.getDefault()), right.trim().toLowerCase(Locale.getDefault()));
+        return matcher.score(normalize(left), normalize(right));
+    }
+
+    /**
+     * Normalize a value before it is matched so that leading and trailing whitespace and case are ignored.
+     *
+     * @param value the value to normalize.
+     *
+     * @return the trimmed and lower cased value.
+     */
+    public static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.getDefault());
     }
 
     /**
@@ -98,27 +507,6 @@ public class MatcherService {
      */
     public boolean isDistance(String matcherName) {
         return !isSimilarity(matcherName);
-        /*
-        switch (matcherName) {
-            case "levenshtein":
-            case "normalized-levenshtein-distance":
-            case "damerau-levenshtein":
-            case "optimal-string-alignment":
-            case "longest-common-subsequence":
-            case "normalized-lcs-distance":
-            case "metric-lcs":
-            case "ngram":
-            case "qgram":
-            case "cosine-distance":
-            case "dice-distance":
-            case "jaccard-distance":
-                return true;
-                break;
-            default:
-                return false;
-                break;
-        }
-        */
     }
 
     /**
@@ -129,116 +517,125 @@ public class MatcherService {
      * @return boolean
      */
     public boolean isSimilarity(String matcherName) {
-        switch (matcherName) {
-            case "cosine-similarity":
-            case "dice-similarity":
-            case "jaccard-similarity":
-            case "jaro-winkler-similarity":
-            case "normalized-levenshtein-similarity":
-            case "normalized-lcs-similarity":
-            case "dateDamerau":
-                return true;
-            default:
-                return false;
-         }
+        StringComparisonMatcher matcher = matchers.get(matcherName);
+        return matcher != null && matcher.distance == false;
     }
 
-    /*
-     * Get a matcher by its name from the cache. If the matcher is not already in the cache, load it, place it in the
-     * cache and then return it.
+    /**
+     * The score the given matcher gives two equal values, 1 for the similarities and 0 for the distances.
+     *
+     * @param matcherName the name of the matcher to use.
+     *
+     * @return the score of an exact match.
      */
-    private StringComparisonMatcher getMatcher(String matcherName) {
-        if (matchers.containsKey(matcherName)) {
-            return matchers.get(matcherName);
-        }
-        StringSimilarity simMatcher;
-        StringDistance disMatcher;
+    public double exactScore(String matcherName) {
+        return getMatcher(matcherName).exactScore;
+    }
+
+    /**
+     * The smallest score the given matcher can give, 0 for the matchers of the library except the normalized LCS
+     * similarity, and what custom matchers declare.
+     *
+     * @param matcherName the name of the matcher to use.
+     *
+     * @return the lower bound of the scores.
+     */
+    public double minScore(String matcherName) {
+        return getMatcher(matcherName).minScore;
+    }
+
+    /**
+     * The largest score the given matcher can give, 1 for the normalized similarities and distances (2 for the
+     * normalized LCS distance) and infinity for the matchers whose scores are not bounded.
+     *
+     * @param matcherName the name of the matcher to use.
+     *
+     * @return the upper bound of the scores.
+     */
+    public double maxScore(String matcherName) {
+        return getMatcher(matcherName).maxScore;
+    }
+
+    /**
+     * The relative cost of running the given matcher once, used to run the cheap matchers of a document first. Date
+     * and bounded edit distance matchers are the cheapest, shingle based and custom matchers the most expensive.
+     *
+     * @param matcherName the name of the matcher to use.
+     *
+     * @return the cost, from 1 to 6.
+     */
+    public int cost(String matcherName) {
+        getMatcher(matcherName);
         switch (matcherName) {
-            case "cosine-similarity":
-                simMatcher = new Cosine();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;
-            case "dice-similarity":
-                simMatcher = new SorensenDice();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;
-            case "jaccard-similarity":
-                simMatcher = new Jaccard();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;
+            case "dateDamerau":
+                return 1;
+            case "levenshtein":
+            case "optimal-string-alignment":
+                return 2;
             case "jaro-winkler-similarity":
-                simMatcher = new JaroWinkler();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;
+            case "jaro-winkler-distance":
             case "normalized-levenshtein-similarity":
-                simMatcher = new NormalizedLevenshtein();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;
-            case "normalized-lcs-similarity":
-                simMatcher = new NormalizedLongestCommonSubsequence();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;
-            case "levenshtein":
-                disMatcher = new Levenshtein();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
             case "normalized-levenshtein-distance":
-                disMatcher = new NormalizedLevenshtein();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
             case "damerau-levenshtein":
-                disMatcher = new Damerau();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
-            case "dateDamerau":
-                simMatcher = new DateDamerau();
-                matchers.put(matcherName, new StringComparisonMatcher(simMatcher));
-                break;                     
-            case "optimal-string-alignment":
-                disMatcher = new OptimalStringAlignment();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
-            case "jaro-winkler-distance":
-                disMatcher = new JaroWinkler();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
+            case "double-metaphone":
+            case "nysiis":
+            case "soundex":
+                return 3;
             case "longest-common-subsequence":
-                disMatcher = new LongestCommonSubsequence();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
+            case "normalized-lcs-similarity":
             case "normalized-lcs-distance":
-                disMatcher = new NormalizedLongestCommonSubsequence();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
             case "metric-lcs":
-                disMatcher = new MetricLCS();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
             case "ngram":
-                disMatcher = new NGram();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
-            case "qgram":
-                disMatcher = new QGram();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
+                return 4;
+            case "cosine-similarity":
+            case "dice-similarity":
+            case "jaccard-similarity":
             case "cosine-distance":
-                disMatcher = new Cosine();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
             case "dice-distance":
-                disMatcher = new SorensenDice();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
             case "jaccard-distance":
-                disMatcher = new Jaccard();
-                matchers.put(matcherName, new StringComparisonMatcher(disMatcher));
-                break;
+            case "qgram":
+                return 5;
             default:
-                throw new IllegalArgumentException("The matcher [" + matcherName + "] is not supported.");
+                return 6;
         }
+    }
 
-        return matchers.get(matcherName);
+    /*
+     * Get a matcher by its name.
+     */
+    private StringComparisonMatcher getMatcher(String matcherName) {
+        StringComparisonMatcher matcher = matchers.get(matcherName);
+        if (matcher == null) {
+            throw new IllegalArgumentException("The matcher [" + matcherName + "] is not supported.");
+        }
+        return matcher;
+    }
+
+    /*
+     * The distances of the library matchers that are derived from another distance, see
+     * {@link NormalizedLevenshtein}, {@link LongestCommonSubsequence} and {@link MetricLCS}.
+     */
+    private static double normalizedLevenshtein(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int maxLength = Math.max(s1.length(), s2.length());
+        return maxLength == 0 ? 0 : 1.0 * EditDistance.levenshtein(s1, s2) / maxLength;
+    }
+
+    private static double longestCommonSubsequence(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        return s1.length() + s2.length() - 2 * EditDistance.longestCommonSubsequence(s1, s2);
+    }
+
+    private static double metricLongestCommonSubsequence(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int maxLength = Math.max(s1.length(), s2.length());
+        return maxLength == 0 ? 0 : 1.0 - (1.0 * EditDistance.longestCommonSubsequence(s1, s2)) / maxLength;
     }
 
     /*
@@ -247,11 +644,9 @@ public class MatcherService {
      */
     private static class NormalizedLongestCommonSubsequence implements NormalizedStringSimilarity, NormalizedStringDistance {
 
-        LongestCommonSubsequence lcs = new LongestCommonSubsequence();
-
         @Override
         public double distance(String s1, String s2) {
-            double distance = lcs.distance(s1, s2);
+            double distance = longestCommonSubsequence(s1, s2);
             return distance / Math.max(s1.length(), s2.length());
         }
 
@@ -261,4 +656,314 @@ public class MatcherService {
         }
 
     }
+
+    /*
+     * Base class for the shingle based matchers which keeps the hashed shingle profile of the query value, see
+     * {@link ShingleHashes}. Document values are hashed into a per-thread scratch buffer and the profiles compared
+     * with a single merge, so scoring a document does not allocate. The scores are those of the matching methods of
+     * the library up to hash collisions and the order in which floating point sums are added up.
+     */
+    private abstract static class PreparedShingleMatcher implements PreparedShingleHashMatcher {
+
+        private static final ThreadLocal<Overlap> OVERLAPS = ThreadLocal.withInitial(Overlap::new);
+
+        final int k;
+        final String query;
+        /* the hashed query profile, as distinct hashes in increasing order and their counts */
+        final long[] queryHashes;
+        final int[] queryCounts;
+
+        PreparedShingleMatcher(ShingleBased shingles, String query) {
+            this.k = shingles.getK();
+            this.query = query;
+            long[] hashes = ShingleHashes.hashes(query, k);
+            int distinct = ShingleHashes.distinct(hashes, hashes.length);
+            this.queryHashes = new long[distinct];
+            this.queryCounts = new int[distinct];
+            int j = -1;
+            for (int i = 0; i < hashes.length; i++) {
+                if (i == 0 || hashes[i] != hashes[i - 1]) {
+                    queryHashes[++j] = hashes[i];
+                }
+                queryCounts[j]++;
+            }
+        }
+
+        @Override
+        public double score(String value) {
+            String right = normalize(value);
+            Overlap scratch = OVERLAPS.get();
+            long[] hashes = scratch.hashes;
+            if (hashes.length < right.length()) {
+                // like the scratch arrays of the edit distances, only arrays up to a size are kept for the next value
+                hashes = new long[right.length() > Scratch.MAX_KEPT ? right.length()
+                        : Math.min(ArrayUtil.oversize(right.length(), Long.BYTES), Scratch.MAX_KEPT)];
+                if (hashes.length <= Scratch.MAX_KEPT) {
+                    scratch.hashes = hashes;
+                }
+            }
+            int length = ShingleHashes.hashes(right, k, hashes);
+            return scoreShingles(right, hashes, length);
+        }
+
+        /*
+         * Compare the hashed query profile with the hashed profile of a document value. The returned overlap is
+         * reused by the next call on the same thread.
+         */
+        Overlap overlap(long[] hashes, int length) {
+            Overlap overlap = OVERLAPS.get();
+            overlap.distinct = 0;
+            overlap.intersection = 0;
+            overlap.dotProduct = 0;
+            overlap.normSquared = 0;
+            overlap.difference = 0;
+            int q = 0;
+            int d = 0;
+            while (q < queryHashes.length || d < length) {
+                int queryCount = 0;
+                int count = 0;
+                long hash;
+                if (d == length || q < queryHashes.length && queryHashes[q] <= hashes[d]) {
+                    hash = queryHashes[q];
+                    queryCount = queryCounts[q++];
+                } else {
+                    hash = hashes[d];
+                }
+                while (d < length && hashes[d] == hash) {
+                    count++;
+                    d++;
+                }
+                if (count > 0) {
+                    overlap.distinct++;
+                    overlap.normSquared += 1.0 * count * count;
+                }
+                if (queryCount > 0 && count > 0) {
+                    overlap.intersection++;
+                    overlap.dotProduct += 1.0 * queryCount * count;
+                }
+                overlap.difference += Math.abs(queryCount - count);
+            }
+            return overlap;
+        }
+    }
+
+    /*
+     * The sizes that the shingle based matchers are computed from, along with the scratch buffer document values
+     * are hashed into. There is one per thread.
+     */
+    private static class Overlap {
+        /* the number of distinct shingles of the document value and of those also in the query value */
+        int distinct;
+        int intersection;
+        /* the dot product of the profiles and the squared norm of the document profile */
+        double dotProduct;
+        double normSquared;
+        /* the sum of the differences of the counts of each shingle */
+        int difference;
+        long[] hashes = new long[64];
+    }
+
+    /*
+     * The query side of {@link Cosine}.
+     */
+    private static class PreparedCosine extends PreparedShingleMatcher {
+
+        private final boolean distance;
+        private final double queryNorm;
+
+        PreparedCosine(String query, boolean distance) {
+            super(new Cosine(), query);
+            this.distance = distance;
+            double normSquared = 0;
+            for (int count : queryCounts) {
+                normSquared += 1.0 * count * count;
+            }
+            this.queryNorm = Math.sqrt(normSquared);
+        }
+
+        @Override
+        public double scoreShingles(String value, long[] hashes, int length) {
+            String right = normalize(value);
+            double similarity;
+            if (query.equals(right)) {
+                similarity = 1;
+            } else if (query.length() < k || right.length() < k) {
+                similarity = 0;
+            } else {
+                Overlap overlap = overlap(hashes, length);
+                similarity = overlap.dotProduct / (queryNorm * Math.sqrt(overlap.normSquared));
+            }
+            return distance ? 1.0 - similarity : similarity;
+        }
+    }
+
+    /*
+     * The query side of {@link Jaccard}.
+     */
+    private static class PreparedJaccard extends PreparedShingleMatcher {
+
+        private final boolean distance;
+
+        PreparedJaccard(String query, boolean distance) {
+            super(new Jaccard(), query);
+            this.distance = distance;
+        }
+
+        @Override
+        public double scoreShingles(String value, long[] hashes, int length) {
+            double similarity = 1;
+            if (query.equals(normalize(value)) == false) {
+                Overlap overlap = overlap(hashes, length);
+                int union = queryHashes.length + overlap.distinct - overlap.intersection;
+                similarity = 1.0 * overlap.intersection / union;
+            }
+            return distance ? 1.0 - similarity : similarity;
+        }
+    }
+
+    /*
+     * The query side of {@link SorensenDice}.
+     */
+    private static class PreparedSorensenDice extends PreparedShingleMatcher {
+
+        private final boolean distance;
+
+        PreparedSorensenDice(String query, boolean distance) {
+            super(new SorensenDice(), query);
+            this.distance = distance;
+        }
+
+        @Override
+        public double scoreShingles(String value, long[] hashes, int length) {
+            double similarity = 1;
+            if (query.equals(normalize(value)) == false) {
+                Overlap overlap = overlap(hashes, length);
+                similarity = 2.0 * overlap.intersection / (queryHashes.length + overlap.distinct);
+            }
+            return distance ? 1 - similarity : similarity;
+        }
+    }
+
+    /*
+     * The query side of {@link QGram}.
+     */
+    private static class PreparedQGram extends PreparedShingleMatcher {
+
+        PreparedQGram(String query) {
+            super(new QGram(), query);
+        }
+
+        @Override
+        public double scoreShingles(String value, long[] hashes, int length) {
+            if (query.equals(normalize(value))) {
+                return 0;
+            }
+            return overlap(hashes, length).difference;
+        }
+    }
+
+    /*
+     * The Levenshtein and longest common subsequence based matchers for query values that fit in a single word. The
+     * scores are derived from the distance or subsequence length exactly as the library matchers do.
+     */
+    private static class PreparedBitParallel implements PreparedMatcher {
+
+        private final String matcherName;
+        private final BitParallelPattern pattern;
+
+        PreparedBitParallel(String matcherName, BitParallelPattern pattern) {
+            this.matcherName = matcherName;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public double score(String value) {
+            String right = normalize(value);
+            switch (matcherName) {
+                case "levenshtein":
+                    return levenshtein(right);
+                case "normalized-levenshtein-distance":
+                    return normalizedLevenshtein(right);
+                case "normalized-levenshtein-similarity":
+                    return 1.0 - normalizedLevenshtein(right);
+                case "longest-common-subsequence":
+                    return lcsDistance(right);
+                case "normalized-lcs-distance":
+                    return normalizedLcs(right);
+                case "normalized-lcs-similarity":
+                    return 1 - normalizedLcs(right);
+                case "metric-lcs":
+                    return metricLcs(right);
+                default:
+                    throw new IllegalArgumentException("The matcher [" + matcherName + "] is not supported.");
+            }
+        }
+
+        private double levenshtein(String right) {
+            if (pattern.pattern().equals(right)) {
+                return 0;
+            }
+            return pattern.levenshtein(right);
+        }
+
+        private double normalizedLevenshtein(String right) {
+            if (pattern.pattern().equals(right)) {
+                return 0;
+            }
+            return levenshtein(right) / Math.max(pattern.length(), right.length());
+        }
+
+        private double lcsDistance(String right) {
+            if (pattern.pattern().equals(right)) {
+                return 0;
+            }
+            return pattern.length() + right.length() - 2 * pattern.longestCommonSubsequence(right);
+        }
+
+        private double normalizedLcs(String right) {
+            return lcsDistance(right) / Math.max(pattern.length(), right.length());
+        }
+
+        private double metricLcs(String right) {
+            if (pattern.pattern().equals(right)) {
+                return 0;
+            }
+            return 1.0 - (1.0 * pattern.longestCommonSubsequence(right)) / Math.max(pattern.length(), right.length());
+        }
+    }
+    /*
+     * The query side of {@link DateDamerau}, with the query date parsed once.
+     */
+    private static class PreparedDateDamerau implements PreparedDateMatcher {
+
+        private final String query;
+        private final int queryDate;
+
+        PreparedDateDamerau(String query) {
+            this.query = query;
+            this.queryDate = DateDamerau.parse(query);
+        }
+
+        @Override
+        public double score(String value) {
+            String right = normalize(value);
+            if (query.equals(right)) {
+                return 1;
+            }
+            int date = DateDamerau.parse(right);
+            if (queryDate == DateDamerau.INVALID || date == DateDamerau.INVALID) {
+                throw new IllegalArgumentException("Invalid format: " + query + " " + right);
+            }
+            return DateDamerau.similarity(queryDate, date);
+        }
+
+        @Override
+        public double scoreDate(long epochDay) {
+            int date = DateDamerau.fromEpochDay(epochDay);
+            if (queryDate == DateDamerau.INVALID || date == DateDamerau.INVALID) {
+                throw new IllegalArgumentException("Invalid format: " + query + " " + LocalDate.ofEpochDay(epochDay));
+            }
+            return DateDamerau.similarity(queryDate, date);
+        }
+    }
 }
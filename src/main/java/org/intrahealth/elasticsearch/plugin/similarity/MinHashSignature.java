@@ -0,0 +1,116 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * MinHash signatures of the shingle profiles the <code>jaccard</code>, <code>cosine</code> and <code>dice</code>
+ * matchers compare, split into locality sensitive hashing bands. Two values whose shingle sets have a Jaccard
+ * similarity of s share at least one of b bands of r rows with a probability of <code>1 - (1 - s^r)^b</code>, so
+ * indexing the band keys of each value and looking up the band keys of the query value finds the similar values
+ * without comparing them one by one.
+ * <p>
+ * The keys only depend on the value and the shingle size, bands and rows, so the same signature must be used at
+ * index and at search time.
+ */
+public final class MinHashSignature {
+
+    /**
+     * The largest number of hash functions of a signature.
+     */
+    public static final int MAX_HASHES = 1024;
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final int shingleSize;
+    private final int bands;
+    private final int rows;
+    private final long[] seeds;
+
+    /**
+     * @param shingleSize the length of the shingles, like the <code>k</code> of the shingle based matchers.
+     * @param bands       the number of bands, more bands find less similar values.
+     * @param rows        the number of hash functions per band, more rows find fewer dissimilar values.
+     */
+    public MinHashSignature(int shingleSize, int bands, int rows) {
+        if (shingleSize < 1 || bands < 1 || rows < 1) {
+            throw new IllegalArgumentException("The shingle size, bands and rows of a MinHash signature must be at least 1");
+        }
+        if ((long) bands * rows > MAX_HASHES) {
+            throw new IllegalArgumentException("A MinHash signature can not have more than " + MAX_HASHES
+                    + " hash functions, bands * rows is " + ((long) bands * rows));
+        }
+        this.shingleSize = shingleSize;
+        this.bands = bands;
+        this.rows = rows;
+        this.seeds = new long[bands * rows];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = (i + 1) * 0x9E3779B97F4A7C15L;
+        }
+    }
+
+    /**
+     * Computes the band keys of a value. The value is normalized and split into shingles the same way as the
+     * shingle based matchers do.
+     *
+     * @param value the value.
+     *
+     * @return one key per band, or no keys if the value is shorter than a shingle.
+     */
+    public List<String> bandKeys(String value) {
+        String normalized = SPACES.matcher(MatcherService.normalize(value)).replaceAll(" ");
+        Set<String> shingles = new HashSet<>();
+        for (int i = 0; i + shingleSize <= normalized.length(); i++) {
+            shingles.add(normalized.substring(i, i + shingleSize));
+        }
+        if (shingles.isEmpty()) {
+            return List.of();
+        }
+
+        long[] minimums = new long[seeds.length];
+        Arrays.fill(minimums, Long.MAX_VALUE);
+        MurmurHash3.Hash128 hash = new MurmurHash3.Hash128();
+        for (String shingle : shingles) {
+            byte[] bytes = shingle.getBytes(StandardCharsets.UTF_8);
+            long base = MurmurHash3.hash128(bytes, 0, bytes.length, 0, hash).h1;
+            for (int i = 0; i < seeds.length; i++) {
+                minimums[i] = Math.min(minimums[i], MurmurHash3.murmur64(base ^ seeds[i]));
+            }
+        }
+
+        List<String> keys = new ArrayList<>(bands);
+        for (int band = 0; band < bands; band++) {
+            long key = band;
+            for (int row = 0; row < rows; row++) {
+                key = MurmurHash3.murmur64(key * 31 + minimums[band * rows + row]);
+            }
+            keys.add(band + "_" + Long.toHexString(key));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import info.debatty.java.stringsimilarity.interfaces.NormalizedStringSimilarity;
+import net.jcip.annotations.Immutable;
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.apache.commons.codec.language.Nysiis;
+import org.apache.commons.codec.language.Soundex;
+
+import java.util.Locale;
+
+/**
+ * Compares two values by their phonetic codes: the similarity is 1 when the values agree phonetically and 0
+ * otherwise.
+ * <p>
+ * The codes of a value are given as a single string so that they can be computed once, when the query is prepared
+ * or when a document is indexed, and then compared with {@link #agreement(String, String)} without encoding again.
+ * Double Metaphone gives a primary and an alternate code separated by a space, and two values agree when any of
+ * their codes are equal.
+ */
+@Immutable
+public final class PhoneticSimilarity implements NormalizedStringSimilarity {
+
+    /**
+     * The supported phonetic algorithms.
+     */
+    public enum Algorithm {
+        DOUBLE_METAPHONE,
+        NYSIIS,
+        SOUNDEX;
+
+        /**
+         * @return the name of the algorithm in matcher names and field names, like <code>double_metaphone</code>.
+         */
+        public String fieldName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final DoubleMetaphone DOUBLE_METAPHONE = new DoubleMetaphone();
+    private static final Nysiis NYSIIS = new Nysiis(true);
+
+    private final Algorithm algorithm;
+
+    public PhoneticSimilarity(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public Algorithm algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @param s1 The first string to compare.
+     * @param s2 The second string to compare.
+     * @return 1 if the codes of the strings agree, 0 otherwise.
+     * @throws NullPointerException if s1 or s2 is null.
+     */
+    @Override
+    public double similarity(String s1, String s2) {
+        if (s1 == null) {
+            throw new NullPointerException("s1 must not be null");
+        }
+        if (s2 == null) {
+            throw new NullPointerException("s2 must not be null");
+        }
+        return agreement(encode(s1), encode(s2));
+    }
+
+    /**
+     * Computes the phonetic codes of a value.
+     *
+     * @param value The value to encode.
+     * @return The codes, separated by a space, or an empty string if the value has no code.
+     */
+    public String encode(String value) {
+        String code;
+        switch (algorithm) {
+            case DOUBLE_METAPHONE:
+                String primary = DOUBLE_METAPHONE.doubleMetaphone(value, false);
+                String alternate = DOUBLE_METAPHONE.doubleMetaphone(value, true);
+                if (primary == null || primary.isEmpty()) {
+                    return "";
+                }
+                code = alternate == null || alternate.isEmpty() || alternate.equals(primary) ? primary
+                        : primary + " " + alternate;
+                break;
+            case NYSIIS:
+                code = NYSIIS.nysiis(value);
+                break;
+            case SOUNDEX:
+                // the mapping only covers the letters of the English alphabet and throws on any other letter
+                code = Soundex.US_ENGLISH.soundex(asciiLetters(value));
+                break;
+            default:
+                throw new IllegalStateException("Unknown phonetic algorithm " + algorithm);
+        }
+        return code == null ? "" : code;
+    }
+
+    /**
+     * Compares two codes computed by {@link #encode(String)}.
+     *
+     * @param codes1 The first codes to compare.
+     * @param codes2 The second codes to compare.
+     * @return 1 if any code of the first string is also a code of the second, 0 otherwise.
+     */
+    public static double agreement(String codes1, String codes2) {
+        if (codes1.isEmpty() || codes2.isEmpty()) {
+            return 0.0;
+        }
+        if (codes1.equals(codes2)) {
+            return 1.0;
+        }
+        for (String code : codes1.split(" ")) {
+            for (String other : codes2.split(" ")) {
+                if (code.equals(other)) {
+                    return 1.0;
+                }
+            }
+        }
+        return 0.0;
+    }
+
+    private static String asciiLetters(String value) {
+        StringBuilder letters = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                letters.append(c);
+            }
+        }
+        return letters.toString();
+    }
+}
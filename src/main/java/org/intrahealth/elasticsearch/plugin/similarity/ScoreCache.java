@@ -0,0 +1,292 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.util.function.DoubleSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A node level LRU cache of match scores keyed on the matcher and the normalized query and document values. Names,
+ * cities and other repetitive fields are matched against the same values over and over, within a search and across
+ * searches, so their scores are worth keeping. The memory used by the cache is bounded by
+ * <code>similarity.score_cache.size</code> and also counted against the <code>similarity</code> circuit breaker;
+ * when the breaker would trip the score is simply not cached.
+ */
+public final class ScoreCache {
+
+    /**
+     * The maximum memory used by the cache, 0 disables it.
+     */
+    public static final Setting<ByteSizeValue> SIZE_SETTING =
+            Setting.memorySizeSetting("similarity.score_cache.size", "1%", Property.NodeScope);
+
+    /**
+     * The limit of the circuit breaker the cache is accounted in.
+     */
+    public static final Setting<ByteSizeValue> BREAKER_LIMIT_SETTING =
+            Setting.memorySizeSetting("similarity.breaker.limit", "2%", Property.NodeScope);
+
+    /**
+     * The name of the circuit breaker of the plugin.
+     */
+    public static final String BREAKER_NAME = "similarity";
+
+    /*
+     * The key and the boxed score are counted, as well as an estimate of the entry of the cache. The strings of the
+     * key are weighed with each entry.
+     */
+    private static final long ENTRY_OVERHEAD = RamUsageEstimator.shallowSizeOfInstance(Key.class)
+            + RamUsageEstimator.shallowSizeOfInstance(Double.class) + 64;
+
+    private final Cache<Key, Double> cache;
+    private final long maxWeight;
+    private volatile CircuitBreaker breaker;
+
+    public ScoreCache(Settings settings) {
+        this.maxWeight = SIZE_SETTING.get(settings).getBytes();
+        this.cache = CacheBuilder.<Key, Double>builder()
+                .setMaximumWeight(maxWeight)
+                .weigher(ScoreCache::weigh)
+                .removalListener(this::onRemoval)
+                .build();
+    }
+
+    /**
+     * Set the circuit breaker the memory of the cache is accounted in.
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * @return the circuit breaker the memory of the cache is accounted in, null until it is set.
+     */
+    public CircuitBreaker circuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return false if the cache was disabled with a size of 0.
+     */
+    public boolean isEnabled() {
+        return maxWeight > 0;
+    }
+
+    /**
+     * Wrap a prepared matcher so that its scores are looked up in the cache before they are computed. The caching
+     * matcher is of the same kind as the matcher it wraps: quick scores are still answered by the matcher, a bounded
+     * edit distance still exposes its query and limit, and shingle and date matchers can still be given the hashed
+     * profile or the day of a document.
+     *
+     * @param scope      identifies the matcher, including anything besides the two values that changes its scores.
+     * @param query      the normalized query value.
+     * @param matcher    the prepared matcher.
+     * @param normalizer the normalization the matcher applies to the document values.
+     *
+     * @return the caching matcher.
+     */
+    MatcherService.PreparedMatcher wrap(String scope, String query, MatcherService.PreparedMatcher matcher,
+                                        UnaryOperator<String> normalizer) {
+        if (matcher instanceof MatcherService.PreparedBoundedEditDistance) {
+            MatcherService.PreparedBoundedEditDistance bounded = (MatcherService.PreparedBoundedEditDistance) matcher;
+            return new MatcherService.PreparedBoundedEditDistance(bounded.query(), bounded.limit(), bounded.transpositions(),
+                    new CachedMatcher(scope, query, matcher, normalizer));
+        }
+        if (matcher instanceof MatcherService.PreparedShingleHashMatcher) {
+            return new CachedShingleHashMatcher(scope, query, (MatcherService.PreparedShingleHashMatcher) matcher, normalizer);
+        }
+        if (matcher instanceof MatcherService.PreparedDateMatcher) {
+            return new CachedDateMatcher(scope, query, (MatcherService.PreparedDateMatcher) matcher, normalizer);
+        }
+        return new CachedMatcher(scope, query, matcher, normalizer);
+    }
+
+    private void put(Key key, Double score) {
+        CircuitBreaker breaker = this.breaker;
+        if (breaker != null) {
+            try {
+                breaker.addEstimateBytesAndMaybeBreak(weigh(key, score), BREAKER_NAME + "_score_cache");
+            } catch (CircuitBreakingException e) {
+                // the score is still returned, only not cached
+                return;
+            }
+        }
+        cache.put(key, score);
+    }
+
+    private void onRemoval(RemovalNotification<Key, Double> notification) {
+        CircuitBreaker breaker = this.breaker;
+        if (breaker != null) {
+            breaker.addWithoutBreaking(-weigh(notification.getKey(), notification.getValue()));
+        }
+    }
+
+    /*
+     * The scope and query strings are shared by the entries of a search, but they stay in the cache for as long as
+     * any of those entries does, so each entry is charged for them. That overestimates the memory of the entries of
+     * a search rather than leave the strings of long query values out of the cache size and the breaker.
+     */
+    private static long weigh(Key key, Double score) {
+        return ENTRY_OVERHEAD + RamUsageEstimator.sizeOf(key.scope) + RamUsageEstimator.sizeOf(key.query)
+                + RamUsageEstimator.sizeOf(key.value);
+    }
+
+    /**
+     * Drop all the cached scores.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the number of cached scores.
+     */
+    public int count() {
+        return cache.count();
+    }
+
+    /**
+     * @return the estimated memory used by the cached scores in bytes.
+     */
+    public long sizeInBytes() {
+        return cache.weight();
+    }
+
+    /**
+     * @return the hit, miss and eviction counts of the cache.
+     */
+    public Cache.CacheStats stats() {
+        return cache.stats();
+    }
+
+    private class CachedMatcher implements MatcherService.PreparedMatcher {
+
+        private final String scope;
+        private final String query;
+        private final MatcherService.PreparedMatcher matcher;
+        private final UnaryOperator<String> normalizer;
+
+        CachedMatcher(String scope, String query, MatcherService.PreparedMatcher matcher, UnaryOperator<String> normalizer) {
+            this.scope = scope;
+            this.query = query;
+            this.matcher = matcher;
+            this.normalizer = normalizer;
+        }
+
+        @Override
+        public double score(String value) {
+            return cachedScore(value, () -> matcher.score(value));
+        }
+
+        final double cachedScore(String value, DoubleSupplier compute) {
+            Key key = new Key(scope, query, normalizer.apply(value));
+            Double score = cache.get(key);
+            if (score == null) {
+                score = compute.getAsDouble();
+                put(key, score);
+            }
+            return score;
+        }
+
+        @Override
+        public double quickScore(String value) {
+            return matcher.quickScore(value);
+        }
+    }
+
+    /*
+     * The profile of a document only spares building it from the value, so the score is cached by the value.
+     */
+    private final class CachedShingleHashMatcher extends CachedMatcher implements MatcherService.PreparedShingleHashMatcher {
+
+        private final MatcherService.PreparedShingleHashMatcher matcher;
+
+        CachedShingleHashMatcher(String scope, String query, MatcherService.PreparedShingleHashMatcher matcher,
+                                 UnaryOperator<String> normalizer) {
+            super(scope, query, matcher, normalizer);
+            this.matcher = matcher;
+        }
+
+        @Override
+        public double scoreShingles(String value, long[] hashes, int length) {
+            return cachedScore(value, () -> matcher.scoreShingles(value, hashes, length));
+        }
+    }
+
+    /*
+     * Days are compared without a string to look up, so they are matched as they are.
+     */
+    private final class CachedDateMatcher extends CachedMatcher implements MatcherService.PreparedDateMatcher {
+
+        private final MatcherService.PreparedDateMatcher matcher;
+
+        CachedDateMatcher(String scope, String query, MatcherService.PreparedDateMatcher matcher,
+                          UnaryOperator<String> normalizer) {
+            super(scope, query, matcher, normalizer);
+            this.matcher = matcher;
+        }
+
+        @Override
+        public double scoreDate(long epochDay) {
+            return matcher.scoreDate(epochDay);
+        }
+    }
+
+    private static final class Key {
+        final String scope;
+        final String query;
+        final String value;
+        final int hash;
+
+        Key(String scope, String query, String value) {
+            this.scope = scope;
+            this.query = query;
+            this.value = value;
+            this.hash = 31 * (31 * scope.hashCode() + query.hashCode()) + value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && value.equals(key.value) && query.equals(key.query) && scope.equals(key.scope);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
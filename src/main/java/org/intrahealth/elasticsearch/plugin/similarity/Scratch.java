@@ -0,0 +1,96 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.util.Arrays;
+
+/**
+ * Working memory for the dynamic programming matchers, so that comparing two strings does not allocate. There is
+ * one instance per thread. Its arrays grow with the values compared up to {@link #MAX_KEPT} elements, and larger
+ * arrays are allocated for the one comparison that needs them, so that a single long value does not leave every
+ * search thread holding a large array.
+ * <p>
+ * Arrays are handed out by slot. A matcher must not use the same slot twice at once, and must not call another
+ * matcher while it holds a slot.
+ */
+final class Scratch {
+
+    /**
+     * The largest arrays kept between comparisons, in elements.
+     */
+    static final int MAX_KEPT = 1 << 14;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final int[][] ints = new int[3][0];
+    private boolean[] flags = new boolean[0];
+    /* indexed by char, zero everywhere between two uses */
+    private int[] charTable;
+
+    private Scratch() {
+    }
+
+    /**
+     * @return the scratch space of the current thread.
+     */
+    static Scratch get() {
+        return SCRATCH.get();
+    }
+
+    /**
+     * @return an array of at least <code>size</code> ints whose content is undefined.
+     */
+    int[] ints(int slot, int size) {
+        if (ints[slot].length < size) {
+            if (size > MAX_KEPT) {
+                return new int[size];
+            }
+            ints[slot] = new int[Math.min(ArrayUtil.oversize(size, Integer.BYTES), MAX_KEPT)];
+        }
+        return ints[slot];
+    }
+
+    /**
+     * @return an array of at least <code>size</code> booleans, the first <code>size</code> of which are false.
+     */
+    boolean[] flags(int size) {
+        if (flags.length < size) {
+            if (size > MAX_KEPT) {
+                return new boolean[size];
+            }
+            flags = new boolean[Math.min(ArrayUtil.oversize(size, 1), MAX_KEPT)];
+        } else {
+            Arrays.fill(flags, 0, size, false);
+        }
+        return flags;
+    }
+
+    /**
+     * @return an int for each char, all zero. The caller must set the entries it changed back to zero when it is
+     * done.
+     */
+    int[] charTable() {
+        if (charTable == null) {
+            charTable = new int[Character.MAX_VALUE + 1];
+        }
+        return charTable;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.util.Arrays;
+
+/**
+ * The shingle profile of a value as sorted 64 bit hashes of its shingles, one per occurrence. Hashed profiles can
+ * be computed once when a document is indexed and compared without building the string keyed profiles of the
+ * shingle based matchers, which give the same scores up to hash collisions.
+ */
+public final class ShingleHashes {
+
+    /**
+     * The shingle length of the built-in shingle based matchers.
+     */
+    public static final int SHINGLE_SIZE = 3;
+
+    private static final long[] EMPTY = new long[0];
+
+    private ShingleHashes() {
+    }
+
+    /**
+     * Computes the hashed shingle profile of a value, splitting it into shingles like
+     * {@link info.debatty.java.stringsimilarity.ShingleBased#getProfile(String)} does.
+     *
+     * @param normalized the normalized value, see {@link MatcherService#normalize(String)}.
+     * @param k          the length of the shingles.
+     *
+     * @return the hashes of the shingles in increasing order, with one entry per occurrence of a shingle.
+     */
+    public static long[] hashes(String normalized, int k) {
+        long[] hashes = new long[normalized.length()];
+        int length = hashes(normalized, k, hashes);
+        return length == 0 ? EMPTY : Arrays.copyOf(hashes, length);
+    }
+
+    /**
+     * Computes the hashed shingle profile of a value into a buffer, without allocating.
+     *
+     * @param normalized the normalized value, see {@link MatcherService#normalize(String)}.
+     * @param k          the length of the shingles.
+     * @param buffer     receives the hashes in increasing order, must have room for one entry per char of the value.
+     *
+     * @return the number of hashes.
+     */
+    static int hashes(String normalized, int k, long[] buffer) {
+        // collapse each run of whitespace into a single space, as the library does, with the chars stored as longs
+        int length = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (isSpace(c)) {
+                if (i > 0 && isSpace(normalized.charAt(i - 1))) {
+                    continue;
+                }
+                c = ' ';
+            }
+            buffer[length++] = c;
+        }
+        int count = length - k + 1;
+        if (count <= 0) {
+            return 0;
+        }
+        // each shingle only reads the chars from its own position on, so the hashes can overwrite them in place
+        for (int i = 0; i < count; i++) {
+            long hash = 0xcbf29ce484222325L;
+            for (int j = i; j < i + k; j++) {
+                hash = (hash ^ buffer[j]) * 0x100000001b3L;
+            }
+            buffer[i] = MurmurHash3.murmur64(hash);
+        }
+        Arrays.sort(buffer, 0, count);
+        return count;
+    }
+
+    /*
+     * The chars matched by \s in a regular expression.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @return the number of distinct hashes of a sorted profile.
+     */
+    static int distinct(long[] hashes, int length) {
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || hashes[i] != hashes[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The extension point for adding matchers to the plugin. A plugin that extends <code>string-similarity-scoring</code>
+ * lists its implementation in <code>META-INF/services</code> and the matchers become available to the scripts under
+ * the names they are registered with.
+ */
+public interface SimilarityMatcherProvider {
+
+    /**
+     * @return suppliers of the custom matchers by name. The names must not clash with the built-in matchers.
+     */
+    Map<String, Supplier<CustomMatcher>> getMatchers();
+}
@@ -0,0 +1,299 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node level counters of the scoring work: how often each matcher runs, how often its score is known without running
+ * it or the null handling of its field decides the outcome instead, and how many documents each score mode combines.
+ * The counters are striped {@link LongAdder}s resolved once per search, so that counting from many search threads
+ * neither allocates nor contends. The latency of one matcher run in every <code>similarity.stats.latency_sampling</code> runs is recorded
+ * in a histogram of power of two buckets, which costs nothing when the sampling is disabled with 0.
+ */
+public final class SimilarityStats {
+
+    /**
+     * One in how many matcher runs is timed, 0 disables the latency histograms.
+     */
+    public static final Setting<Integer> LATENCY_SAMPLING_SETTING =
+            Setting.intSetting("similarity.stats.latency_sampling", 0, 0, Property.NodeScope, Property.Dynamic);
+
+    /*
+     * Runs of up to 2^(BUCKETS - 1) nanoseconds, about 9 minutes, are counted in their own bucket and longer runs in
+     * the last one.
+     */
+    private static final int BUCKETS = 40;
+
+    private final ConcurrentMap<String, MatcherCounters> matchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> scoreModes = new ConcurrentHashMap<>();
+    private volatile int latencySampling;
+
+    /**
+     * @return the counters of the given matcher.
+     */
+    public MatcherCounters matcher(String matcherName) {
+        return matchers.computeIfAbsent(matcherName, name -> new MatcherCounters());
+    }
+
+    /**
+     * @return the counter of the documents scored with the given score mode.
+     */
+    public LongAdder scoreMode(String scoreMode) {
+        return scoreModes.computeIfAbsent(scoreMode, name -> new LongAdder());
+    }
+
+    /**
+     * @return one in how many matcher runs is timed, 0 if none are.
+     */
+    public int latencySampling() {
+        return latencySampling;
+    }
+
+    public void setLatencySampling(int latencySampling) {
+        this.latencySampling = latencySampling;
+    }
+
+    /**
+     * Zero all the counters. The counters stay registered since running searches keep counting in them.
+     */
+    public void reset() {
+        matchers.values().forEach(MatcherCounters::reset);
+        scoreModes.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * @return a snapshot of the counters of each matcher that ran, by matcher name.
+     */
+    public Map<String, MatcherStats> matcherStats() {
+        Map<String, MatcherStats> stats = new TreeMap<>();
+        for (Map.Entry<String, MatcherCounters> entry : matchers.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    /**
+     * @return the number of documents scored with each score mode that was used.
+     */
+    public Map<String, Long> scoreModeStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : scoreModes.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().sum());
+        }
+        return stats;
+    }
+
+    /**
+     * The counters of a single matcher.
+     */
+    public static final class MatcherCounters {
+
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder shortcuts = new LongAdder();
+        private final LongAdder conservative = new LongAdder();
+        private final LongAdder greedy = new LongAdder();
+        private final LongAdder moderate = new LongAdder();
+        private final LongAdder sampledNanos = new LongAdder();
+        private final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+        private MatcherCounters() {
+            for (int i = 0; i < BUCKETS; i++) {
+                latencies[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Count a run of the matcher.
+         */
+        public void invoked() {
+            invocations.increment();
+        }
+
+        /**
+         * Count a score known without running the matcher, such as an exact match, a value scored before or an edit
+         * distance ruled out by the lengths.
+         */
+        public void shortcut() {
+            shortcuts.increment();
+        }
+
+        /**
+         * Count a field left unmatched by the conservative null handling.
+         */
+        public void conservative() {
+            conservative.increment();
+        }
+
+        /**
+         * Count a field matched by the greedy null handling.
+         */
+        public void greedy() {
+            greedy.increment();
+        }
+
+        /**
+         * Count a field left out by the moderate null handling.
+         */
+        public void moderate() {
+            moderate.increment();
+        }
+
+        /**
+         * Record the latency of a sampled run of the matcher.
+         */
+        public void sampled(long nanos) {
+            int bucket = Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+            latencies[bucket].increment();
+            sampledNanos.add(nanos);
+        }
+
+        private void reset() {
+            invocations.reset();
+            shortcuts.reset();
+            conservative.reset();
+            greedy.reset();
+            moderate.reset();
+            sampledNanos.reset();
+            for (LongAdder latency : latencies) {
+                latency.reset();
+            }
+        }
+
+        private MatcherStats snapshot() {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = latencies[i].sum();
+            }
+            return new MatcherStats(invocations.sum(), shortcuts.sum(), conservative.sum(), greedy.sum(), moderate.sum(),
+                    sampledNanos.sum(), buckets);
+        }
+    }
+
+    /**
+     * A snapshot of the counters of a single matcher, as sent between nodes.
+     */
+    public static final class MatcherStats implements Writeable, ToXContentFragment {
+
+        private final long invocations;
+        private final long shortcuts;
+        private final long conservative;
+        private final long greedy;
+        private final long moderate;
+        private final long sampledNanos;
+        /* the number of sampled runs that took from 2^(i - 1) to 2^i - 1 nanoseconds */
+        private final long[] latencies;
+
+        MatcherStats(long invocations, long shortcuts, long conservative, long greedy, long moderate, long sampledNanos,
+                     long[] latencies) {
+            this.invocations = invocations;
+            this.shortcuts = shortcuts;
+            this.conservative = conservative;
+            this.greedy = greedy;
+            this.moderate = moderate;
+            this.sampledNanos = sampledNanos;
+            this.latencies = latencies;
+        }
+
+        public MatcherStats(StreamInput in) throws IOException {
+            this.invocations = in.readVLong();
+            this.shortcuts = in.readVLong();
+            this.conservative = in.readVLong();
+            this.greedy = in.readVLong();
+            this.moderate = in.readVLong();
+            this.sampledNanos = in.readVLong();
+            this.latencies = in.readVLongArray();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(invocations);
+            out.writeVLong(shortcuts);
+            out.writeVLong(conservative);
+            out.writeVLong(greedy);
+            out.writeVLong(moderate);
+            out.writeVLong(sampledNanos);
+            out.writeVLongArray(latencies);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field("invocations", invocations);
+            builder.field("shortcuts", shortcuts);
+            builder.startObject("null_handling");
+            builder.field("conservative", conservative);
+            builder.field("greedy", greedy);
+            builder.field("moderate", moderate);
+            builder.endObject();
+            long sampled = 0;
+            for (long count : latencies) {
+                sampled += count;
+            }
+            if (sampled > 0) {
+                builder.startObject("latency");
+                builder.field("sampled", sampled);
+                builder.humanReadableField("mean_in_nanos", "mean", TimeValue.timeValueNanos(sampledNanos / sampled));
+                builder.humanReadableField("p50_in_nanos", "p50", TimeValue.timeValueNanos(percentile(0.50, sampled)));
+                builder.humanReadableField("p99_in_nanos", "p99", TimeValue.timeValueNanos(percentile(0.99, sampled)));
+                builder.startObject("histogram");
+                for (int i = 0; i < latencies.length; i++) {
+                    if (latencies[i] > 0) {
+                        builder.field("le_" + upperBound(i), latencies[i]);
+                    }
+                }
+                builder.endObject();
+                builder.endObject();
+            }
+            return builder;
+        }
+
+        /*
+         * The upper bound of the bucket holding the given percentile of the sampled runs.
+         */
+        private long percentile(double percentile, long sampled) {
+            long rank = (long) Math.ceil(percentile * sampled);
+            long count = 0;
+            for (int i = 0; i < latencies.length; i++) {
+                count += latencies[i];
+                if (count >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(latencies.length - 1);
+        }
+
+        private static long upperBound(int bucket) {
+            return (1L << bucket) - 1;
+        }
+    }
+}
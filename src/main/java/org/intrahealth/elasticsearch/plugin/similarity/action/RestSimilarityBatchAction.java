@@ -0,0 +1,100 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * <code>POST {index}/_similarity/_batch</code>, which scores a batch of query records against the documents of the
+ * indices with one shared match configuration.
+ */
+public class RestSimilarityBatchAction extends BaseRestHandler {
+
+    @Override
+    public String getName() {
+        return "similarity_batch_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+                new Route(GET, "/{index}/_similarity/_batch"),
+                new Route(POST, "/{index}/_similarity/_batch"));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        SimilarityBatchRequest batchRequest = new SimilarityBatchRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        try (XContentParser parser = request.contentOrSourceParamParser()) {
+            parse(parser.map(), batchRequest);
+        }
+        return channel -> client.execute(SimilarityBatchAction.INSTANCE, batchRequest, new RestToXContentListener<>(channel));
+    }
+
+    /*
+     * Malformed bodies fail with an IllegalArgumentException, which the client gets as a bad request.
+     */
+    @SuppressWarnings("unchecked")
+    private static void parse(Map<String, Object> body, SimilarityBatchRequest request) {
+        for (Map.Entry<String, Object> entry : body.entrySet()) {
+            Object value = entry.getValue();
+            switch (entry.getKey()) {
+                case "match":
+                    if (value instanceof Map == false) {
+                        throw new IllegalArgumentException("[match] must be an object");
+                    }
+                    request.match((Map<String, Object>) value);
+                    break;
+                case "blocking":
+                    if (value instanceof String) {
+                        request.blocking(List.of((String) value));
+                    } else if (value instanceof List && ((List<?>) value).stream().allMatch(field -> field instanceof String)) {
+                        request.blocking((List<String>) value);
+                    } else {
+                        throw new IllegalArgumentException("[blocking] must be a field name or an array of field names");
+                    }
+                    break;
+                case "records":
+                    if (value instanceof List == false
+                            || ((List<?>) value).stream().allMatch(record -> record instanceof Map) == false) {
+                        throw new IllegalArgumentException("[records] must be an array of objects");
+                    }
+                    request.records((List<Map<String, Object>>) value);
+                    break;
+                case "size":
+                    request.size(Integer.parseInt(String.valueOf(value)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter [" + entry.getKey() + "] of the similarity batch");
+            }
+        }
+    }
+}
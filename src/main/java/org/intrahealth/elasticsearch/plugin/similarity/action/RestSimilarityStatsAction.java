@@ -0,0 +1,60 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions.NodesResponseRestListener;
+
+import java.util.List;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * <code>GET _similarity/stats</code> and <code>GET _similarity/stats/{nodeId}</code>, and
+ * <code>POST _similarity/stats/_reset</code> and <code>POST _similarity/stats/{nodeId}/_reset</code>, which return the
+ * statistics and zero the matcher counters.
+ */
+public class RestSimilarityStatsAction extends BaseRestHandler {
+
+    @Override
+    public String getName() {
+        return "similarity_stats_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+                new Route(GET, "/_similarity/stats"),
+                new Route(GET, "/_similarity/stats/{nodeId}"),
+                new Route(POST, "/_similarity/stats/_reset"),
+                new Route(POST, "/_similarity/stats/{nodeId}/_reset"));
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        SimilarityStatsRequest statsRequest = new SimilarityStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.timeout(request.param("timeout"));
+        statsRequest.reset(request.method() == POST);
+        return channel -> client.execute(SimilarityStatsAction.INSTANCE, statsRequest, new NodesResponseRestListener<>(channel));
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.ActionType;
+
+/**
+ * Scores a batch of query records against the documents of indices.
+ */
+public class SimilarityBatchAction extends ActionType<SimilarityBatchResponse> {
+
+    public static final SimilarityBatchAction INSTANCE = new SimilarityBatchAction();
+    public static final String NAME = "indices:data/read/similarity/batch";
+
+    private SimilarityBatchAction() {
+        super(NAME, SimilarityBatchResponse::new);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * A batch of query records to score against the documents of the given indices with one shared match configuration.
+ * The candidates of each record are the documents that share the value of one of the blocking fields with it.
+ */
+public class SimilarityBatchRequest extends BroadcastRequest<SimilarityBatchRequest> {
+
+    public static final int DEFAULT_SIZE = 10;
+
+    /**
+     * Ordinal scores are kept per plan and segment, so a batch would keep a table for each of its records.
+     */
+    public static final String ORDINALS_NOT_SUPPORTED = "[field_access] [ordinals] is not supported in batches, use [doc_values]";
+
+    /**
+     * The largest number of records in a batch.
+     */
+    public static final int MAX_RECORDS = 10_000;
+
+    /**
+     * The largest number of hits per record, the default <code>index.max_result_window</code> of a search.
+     */
+    public static final int MAX_SIZE = 10_000;
+
+    private Map<String, Object> match;
+    private List<String> blocking = Collections.emptyList();
+    private List<Map<String, Object>> records = Collections.emptyList();
+    private int size = DEFAULT_SIZE;
+
+    public SimilarityBatchRequest(String... indices) {
+        super(indices);
+    }
+
+    public SimilarityBatchRequest(StreamInput in) throws IOException {
+        super(in);
+        this.match = in.readMap();
+        this.blocking = in.readStringList();
+        this.records = in.readList(StreamInput::readMap);
+        this.size = in.readVInt();
+    }
+
+    /**
+     * The match configuration shared by all the records, without values, or a reference to a registered profile.
+     */
+    public SimilarityBatchRequest match(Map<String, Object> match) {
+        this.match = match;
+        return this;
+    }
+
+    public Map<String, Object> match() {
+        return match;
+    }
+
+    /**
+     * The fields a document must share the value of with a record, one of them, to be scored against it.
+     */
+    public SimilarityBatchRequest blocking(List<String> blocking) {
+        this.blocking = blocking;
+        return this;
+    }
+
+    public List<String> blocking() {
+        return blocking;
+    }
+
+    /**
+     * The query values of each record by field name.
+     */
+    public SimilarityBatchRequest records(List<Map<String, Object>> records) {
+        this.records = records;
+        return this;
+    }
+
+    public List<Map<String, Object>> records() {
+        return records;
+    }
+
+    /**
+     * The number of hits to return per record.
+     */
+    public SimilarityBatchRequest size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (match == null) {
+            validationException = addValidationError("[match] is missing", validationException);
+        } else if ("ordinals".equals(match.get("field_access"))) {
+            validationException = addValidationError(ORDINALS_NOT_SUPPORTED, validationException);
+        }
+        if (blocking.isEmpty()) {
+            validationException = addValidationError("[blocking] needs at least one field", validationException);
+        }
+        if (records.isEmpty()) {
+            validationException = addValidationError("[records] needs at least one record", validationException);
+        } else if (records.size() > MAX_RECORDS) {
+            validationException = addValidationError("[records] must hold at most " + MAX_RECORDS + " records, got ["
+                    + records.size() + "]", validationException);
+        }
+        if (size < 1 || size > MAX_SIZE) {
+            validationException = addValidationError("[size] must be between 1 and " + MAX_SIZE + ", got [" + size + "]",
+                    validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeMap(match);
+        out.writeStringCollection(blocking);
+        out.writeCollection(records, StreamOutput::writeMap);
+        out.writeVInt(size);
+    }
+}
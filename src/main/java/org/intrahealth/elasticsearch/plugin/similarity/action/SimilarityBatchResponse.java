@@ -0,0 +1,128 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The top hits of each record of a batch across all the shards.
+ */
+public class SimilarityBatchResponse extends BroadcastResponse {
+
+    private final List<List<Hit>> hits;
+
+    public SimilarityBatchResponse(StreamInput in) throws IOException {
+        super(in);
+        this.hits = in.readList(recordHits -> recordHits.readList(Hit::new));
+    }
+
+    public SimilarityBatchResponse(List<List<Hit>> hits, int totalShards, int successfulShards, int failedShards,
+                                   List<DefaultShardOperationFailedException> shardFailures) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.hits = hits;
+    }
+
+    /**
+     * @return the hits of each record by decreasing score, in the order of the records.
+     */
+    public List<List<Hit>> hits() {
+        return hits;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeCollection(hits, StreamOutput::writeList);
+    }
+
+    @Override
+    protected void addCustomXContentFields(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("records");
+        for (List<Hit> recordHits : hits) {
+            builder.startObject();
+            builder.startArray("hits");
+            for (Hit hit : recordHits) {
+                hit.toXContent(builder, params);
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+        builder.endArray();
+    }
+
+    /**
+     * A document matching a record, with its score.
+     */
+    public static class Hit implements Writeable, ToXContentObject {
+
+        private final String index;
+        private final String id;
+        private final float score;
+
+        public Hit(String index, String id, float score) {
+            this.index = index;
+            this.id = id;
+            this.score = score;
+        }
+
+        public Hit(StreamInput in) throws IOException {
+            this.index = in.readString();
+            this.id = in.readString();
+            this.score = in.readFloat();
+        }
+
+        public String index() {
+            return index;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public float score() {
+            return score;
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(index);
+            out.writeString(id);
+            out.writeFloat(score);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("_index", index);
+            builder.field("_id", id);
+            builder.field("_score", score);
+            builder.endObject();
+            return builder;
+        }
+    }
+}
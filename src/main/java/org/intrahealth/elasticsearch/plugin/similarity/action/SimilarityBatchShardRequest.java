@@ -0,0 +1,92 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.internal.AliasFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The batch of query records to score against the documents of a single shard.
+ */
+public class SimilarityBatchShardRequest extends BroadcastShardRequest {
+
+    private final Map<String, Object> match;
+    private final List<String> blocking;
+    private final List<Map<String, Object>> records;
+    private final int size;
+    private final AliasFilter aliasFilter;
+
+    public SimilarityBatchShardRequest(ShardId shardId, SimilarityBatchRequest request, AliasFilter aliasFilter) {
+        super(shardId, request);
+        this.match = request.match();
+        this.blocking = request.blocking();
+        this.records = request.records();
+        this.size = request.size();
+        this.aliasFilter = aliasFilter;
+    }
+
+    public SimilarityBatchShardRequest(StreamInput in) throws IOException {
+        super(in);
+        this.match = in.readMap();
+        this.blocking = in.readStringList();
+        this.records = in.readList(StreamInput::readMap);
+        this.size = in.readVInt();
+        this.aliasFilter = new AliasFilter(in);
+    }
+
+    public Map<String, Object> match() {
+        return match;
+    }
+
+    public List<String> blocking() {
+        return blocking;
+    }
+
+    public List<Map<String, Object>> records() {
+        return records;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the filters of the filtered aliases the index was resolved through.
+     */
+    public AliasFilter aliasFilter() {
+        return aliasFilter;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeMap(match);
+        out.writeStringCollection(blocking);
+        out.writeCollection(records, StreamOutput::writeMap);
+        out.writeVInt(size);
+        aliasFilter.writeTo(out);
+    }
+}
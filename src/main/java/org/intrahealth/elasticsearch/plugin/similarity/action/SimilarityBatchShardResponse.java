@@ -0,0 +1,59 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.intrahealth.elasticsearch.plugin.similarity.action.SimilarityBatchResponse.Hit;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The top hits of each record of a batch in a single shard.
+ */
+public class SimilarityBatchShardResponse extends BroadcastShardResponse {
+
+    private final List<List<Hit>> hits;
+
+    public SimilarityBatchShardResponse(ShardId shardId, List<List<Hit>> hits) {
+        super(shardId);
+        this.hits = hits;
+    }
+
+    public SimilarityBatchShardResponse(StreamInput in) throws IOException {
+        super(in);
+        this.hits = in.readList(recordHits -> recordHits.readList(Hit::new));
+    }
+
+    /**
+     * @return the hits of each record, in the order of the records.
+     */
+    public List<List<Hit>> hits() {
+        return hits;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeCollection(hits, StreamOutput::writeList);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.intrahealth.elasticsearch.plugin.similarity.ScoreCache;
+import org.intrahealth.elasticsearch.plugin.similarity.SimilarityStats;
+import org.intrahealth.elasticsearch.plugin.similarity.SimilarityStats.MatcherStats;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The statistics of the plugin on a single node.
+ */
+public class SimilarityNodeStats extends BaseNodeResponse implements ToXContentFragment {
+
+    private final long cacheCount;
+    private final long cacheSizeInBytes;
+    private final long cacheHits;
+    private final long cacheMisses;
+    private final long cacheEvictions;
+    private final Map<String, MatcherStats> matchers;
+    private final Map<String, Long> scoreModes;
+
+    public SimilarityNodeStats(DiscoveryNode node, ScoreCache scoreCache, SimilarityStats stats) {
+        super(node);
+        this.cacheCount = scoreCache.count();
+        this.cacheSizeInBytes = scoreCache.sizeInBytes();
+        this.cacheHits = scoreCache.stats().getHits();
+        this.cacheMisses = scoreCache.stats().getMisses();
+        this.cacheEvictions = scoreCache.stats().getEvictions();
+        this.matchers = stats.matcherStats();
+        this.scoreModes = stats.scoreModeStats();
+    }
+
+    public SimilarityNodeStats(StreamInput in) throws IOException {
+        super(in);
+        this.cacheCount = in.readVLong();
+        this.cacheSizeInBytes = in.readVLong();
+        this.cacheHits = in.readVLong();
+        this.cacheMisses = in.readVLong();
+        this.cacheEvictions = in.readVLong();
+        this.matchers = in.readMap(StreamInput::readString, MatcherStats::new);
+        this.scoreModes = in.readMap(StreamInput::readString, StreamInput::readVLong);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(cacheCount);
+        out.writeVLong(cacheSizeInBytes);
+        out.writeVLong(cacheHits);
+        out.writeVLong(cacheMisses);
+        out.writeVLong(cacheEvictions);
+        out.writeMap(matchers, StreamOutput::writeString, (o, stats) -> stats.writeTo(o));
+        out.writeMap(scoreModes, StreamOutput::writeString, StreamOutput::writeVLong);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("score_cache");
+        builder.field("count", cacheCount);
+        builder.humanReadableField("size_in_bytes", "size", new ByteSizeValue(cacheSizeInBytes));
+        builder.field("hits", cacheHits);
+        builder.field("misses", cacheMisses);
+        builder.field("evictions", cacheEvictions);
+        builder.endObject();
+        builder.startObject("matchers");
+        for (Map.Entry<String, MatcherStats> matcher : matchers.entrySet()) {
+            builder.startObject(matcher.getKey());
+            matcher.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.startObject("score_modes");
+        for (Map.Entry<String, Long> scoreMode : scoreModes.entrySet()) {
+            builder.field(scoreMode.getKey(), scoreMode.getValue());
+        }
+        builder.endObject();
+        return builder;
+    }
+}
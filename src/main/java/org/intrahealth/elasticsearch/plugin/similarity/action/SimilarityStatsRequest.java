@@ -0,0 +1,58 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * A request for the statistics of the plugin on the given nodes, all nodes if none are given. The matcher counters of
+ * the nodes are zeroed once read if the request resets them.
+ */
+public class SimilarityStatsRequest extends BaseNodesRequest<SimilarityStatsRequest> {
+
+    private boolean reset;
+
+    public SimilarityStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+
+    public SimilarityStatsRequest(StreamInput in) throws IOException {
+        super(in);
+        this.reset = in.readBoolean();
+    }
+
+    public SimilarityStatsRequest reset(boolean reset) {
+        this.reset = reset;
+        return this;
+    }
+
+    public boolean reset() {
+        return reset;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(reset);
+    }
+}
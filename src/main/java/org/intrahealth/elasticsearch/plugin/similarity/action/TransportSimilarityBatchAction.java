@@ -0,0 +1,204 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.IdFieldMapper;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.Rewriteable;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.search.SearchService;
+import org.elasticsearch.search.internal.AliasFilter;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.intrahealth.elasticsearch.plugin.similarity.action.SimilarityBatchResponse.Hit;
+import org.intrahealth.elasticsearch.plugin.similarity.script.SimilarityBatchScorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Scores a batch of query records on each shard of the indices, on the search thread pool, and merges the top hits
+ * of each record.
+ */
+public class TransportSimilarityBatchAction extends TransportBroadcastAction<SimilarityBatchRequest, SimilarityBatchResponse,
+        SimilarityBatchShardRequest, SimilarityBatchShardResponse> {
+
+    private static final Comparator<Hit> BY_SCORE = Comparator.comparing(Hit::score).reversed();
+
+    private final IndicesService indicesService;
+    private final SimilarityBatchScorer scorer;
+
+    @Inject
+    public TransportSimilarityBatchAction(ClusterService clusterService, TransportService transportService,
+                                          IndicesService indicesService, ActionFilters actionFilters,
+                                          IndexNameExpressionResolver indexNameExpressionResolver, SimilarityBatchScorer scorer) {
+        super(SimilarityBatchAction.NAME, clusterService, transportService, actionFilters, indexNameExpressionResolver,
+                SimilarityBatchRequest::new, SimilarityBatchShardRequest::new, ThreadPool.Names.SEARCH);
+        this.indicesService = indicesService;
+        this.scorer = scorer;
+    }
+
+    /**
+     * A batch runs the matchers of a string_similarity query for every candidate, and is refused as the query is when
+     * expensive queries are not allowed. The shards check again, in case the setting changed in between.
+     */
+    @Override
+    protected void doExecute(Task task, SimilarityBatchRequest request, ActionListener<SimilarityBatchResponse> listener) {
+        if (clusterService.getClusterSettings().get(SearchService.ALLOW_EXPENSIVE_QUERIES) == false) {
+            listener.onFailure(expensiveQueriesDisallowed());
+            return;
+        }
+        super.doExecute(task, request, listener);
+    }
+
+    private static ElasticsearchException expensiveQueriesDisallowed() {
+        return new ElasticsearchException("[similarity_batch] requests cannot be executed when 'search.allow_expensive_queries' "
+                + "is set to false.");
+    }
+
+    /**
+     * The documents of a filtered alias are scored the way a search of the alias finds them, through the filter.
+     */
+    @Override
+    protected SimilarityBatchShardRequest newShardRequest(int numShards, ShardRouting shard, SimilarityBatchRequest request) {
+        ClusterState clusterState = clusterService.state();
+        Set<String> indicesAndAliases = indexNameExpressionResolver.resolveExpressions(clusterState, request.indices());
+        AliasFilter aliasFilter = indicesService.buildAliasFilter(clusterState, shard.getIndexName(), indicesAndAliases);
+        return new SimilarityBatchShardRequest(shard.shardId(), request, aliasFilter);
+    }
+
+    @Override
+    protected SimilarityBatchShardResponse readShardResponse(StreamInput in) throws IOException {
+        return new SimilarityBatchShardResponse(in);
+    }
+
+    @Override
+    protected SimilarityBatchShardResponse shardOperation(SimilarityBatchShardRequest request, Task task) throws IOException {
+        IndexService indexService = indicesService.indexServiceSafe(request.shardId().getIndex());
+        IndexShard indexShard = indexService.getShard(request.shardId().id());
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("similarity_batch")) {
+            QueryShardContext context = indexService.newQueryShardContext(request.shardId().id(), searcher,
+                    System::currentTimeMillis, null);
+            if (context.allowExpensiveQueries() == false) {
+                throw expensiveQueriesDisallowed();
+            }
+            Query filter = null;
+            if (request.aliasFilter().getQueryBuilder() != null) {
+                filter = context.toQuery(Rewriteable.rewrite(request.aliasFilter().getQueryBuilder(), context, true)).query();
+            }
+            ScoreDoc[][] topHits = scorer.score(request.match(), request.blocking(), request.records(), request.size(), filter,
+                    context);
+            List<List<Hit>> hits = new ArrayList<>(topHits.length);
+            for (ScoreDoc[] recordHits : topHits) {
+                List<Hit> shardHits = new ArrayList<>(recordHits.length);
+                for (ScoreDoc hit : recordHits) {
+                    BytesRef id = searcher.doc(hit.doc, Set.of(IdFieldMapper.NAME)).getBinaryValue(IdFieldMapper.NAME);
+                    shardHits.add(new Hit(request.shardId().getIndexName(), Uid.decodeId(id.bytes, id.offset, id.length),
+                            hit.score));
+                }
+                hits.add(shardHits);
+            }
+            return new SimilarityBatchShardResponse(request.shardId(), hits);
+        }
+    }
+
+    @Override
+    protected SimilarityBatchResponse newResponse(SimilarityBatchRequest request, AtomicReferenceArray shardsResponses,
+                                                  ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<DefaultShardOperationFailedException> shardFailures = new ArrayList<>();
+        List<List<Hit>> hits = new ArrayList<>(request.records().size());
+        for (int r = 0; r < request.records().size(); r++) {
+            hits.add(new ArrayList<>());
+        }
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // the shard has no active copy
+                continue;
+            }
+            if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                successfulShards++;
+                List<List<Hit>> shardHits = ((SimilarityBatchShardResponse) shardResponse).hits();
+                for (int r = 0; r < shardHits.size(); r++) {
+                    hits.get(r).addAll(shardHits.get(r));
+                }
+            }
+        }
+        for (int r = 0; r < hits.size(); r++) {
+            List<Hit> recordHits = hits.get(r);
+            recordHits.sort(BY_SCORE);
+            hits.set(r, new ArrayList<>(recordHits.subList(0, Math.min(request.size(), recordHits.size()))));
+        }
+        return new SimilarityBatchResponse(hits, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+
+    /**
+     * Like a search, only the shards of the routing values of the aliases the indices were resolved through are scored.
+     */
+    @Override
+    protected GroupShardsIterator<ShardIterator> shards(ClusterState clusterState, SimilarityBatchRequest request,
+                                                        String[] concreteIndices) {
+        Map<String, Set<String>> routingMap = indexNameExpressionResolver.resolveSearchRouting(clusterState, null, request.indices());
+        return clusterService.operationRouting().searchShards(clusterState, concreteIndices, routingMap, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, SimilarityBatchRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, SimilarityBatchRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.action;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.intrahealth.elasticsearch.plugin.similarity.ScoreCache;
+import org.intrahealth.elasticsearch.plugin.similarity.SimilarityStats;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the statistics of the plugin on each node.
+ */
+public class TransportSimilarityStatsAction extends TransportNodesAction<SimilarityStatsRequest, SimilarityStatsResponse,
+        TransportSimilarityStatsAction.NodeRequest, SimilarityNodeStats> {
+
+    private final ScoreCache scoreCache;
+    private final SimilarityStats stats;
+
+    @Inject
+    public TransportSimilarityStatsAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                          ActionFilters actionFilters, ScoreCache scoreCache, SimilarityStats stats) {
+        super(SimilarityStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                SimilarityStatsRequest::new, NodeRequest::new, ThreadPool.Names.MANAGEMENT, SimilarityNodeStats.class);
+        this.scoreCache = scoreCache;
+        this.stats = stats;
+    }
+
+    @Override
+    protected SimilarityStatsResponse newResponse(SimilarityStatsRequest request, List<SimilarityNodeStats> nodes,
+                                                  List<FailedNodeException> failures) {
+        return new SimilarityStatsResponse(clusterService.getClusterName(), nodes, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(SimilarityStatsRequest request) {
+        return new NodeRequest(request.reset());
+    }
+
+    @Override
+    protected SimilarityNodeStats newNodeResponse(StreamInput in) throws IOException {
+        return new SimilarityNodeStats(in);
+    }
+
+    @Override
+    protected SimilarityNodeStats nodeOperation(NodeRequest request) {
+        SimilarityNodeStats nodeStats = new SimilarityNodeStats(clusterService.localNode(), scoreCache, stats);
+        if (request.reset) {
+            stats.reset();
+        }
+        return nodeStats;
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        private final boolean reset;
+
+        public NodeRequest(boolean reset) {
+            this.reset = reset;
+        }
+
+        public NodeRequest(StreamInput in) throws IOException {
+            super(in);
+            this.reset = in.readBoolean();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeBoolean(reset);
+        }
+    }
+}
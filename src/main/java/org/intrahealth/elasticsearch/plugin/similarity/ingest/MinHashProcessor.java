@@ -0,0 +1,111 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.ingest;
+
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+import org.intrahealth.elasticsearch.plugin.similarity.MinHashSignature;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes the MinHash band keys of a field, see {@link MinHashSignature}, so that the
+ * <code>similarity_minhash</code> query can find the documents with similar values. The keys of the values of an array
+ * are indexed together, so a query asking for several bands may match bands of different values.
+ */
+public final class MinHashProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "similarity_minhash";
+
+    private final String field;
+    private final String targetField;
+    private final MinHashSignature signature;
+    private final boolean ignoreMissing;
+
+    MinHashProcessor(String tag, String description, String field, String targetField, MinHashSignature signature,
+                     boolean ignoreMissing) {
+        super(tag, description);
+        this.field = field;
+        this.targetField = targetField;
+        this.signature = signature;
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+        if (value == null) {
+            if (ignoreMissing) {
+                return document;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot compute its MinHash signature.");
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (element != null) {
+                    keys.addAll(signature.bandKeys(element.toString()));
+                }
+            }
+        } else {
+            keys.addAll(signature.bandKeys(value.toString()));
+        }
+        document.setFieldValue(targetField, new ArrayList<>(keys));
+        return document;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public MinHashProcessor create(Map<String, Processor.Factory> registry, String tag, String description,
+                                       Map<String, Object> config) {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field", field + "_minhash");
+            int shingleSize = readPositiveInt(tag, config, "shingle_size", 3);
+            int bands = readPositiveInt(tag, config, "bands", 20);
+            int rows = readPositiveInt(tag, config, "rows", 5);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            if ((long) bands * rows > MinHashSignature.MAX_HASHES) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "rows", "bands * rows must be at most "
+                        + MinHashSignature.MAX_HASHES + ", it is " + ((long) bands * rows));
+            }
+            return new MinHashProcessor(tag, description, field, targetField, new MinHashSignature(shingleSize, bands, rows),
+                    ignoreMissing);
+        }
+
+        private static int readPositiveInt(String tag, Map<String, Object> config, String propertyName, int defaultValue) {
+            int value = ConfigurationUtils.readIntProperty(TYPE, tag, config, propertyName, defaultValue);
+            if (value < 1) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, propertyName, "must be at least 1");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.ingest;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.PhoneticSimilarity;
+import org.intrahealth.elasticsearch.plugin.similarity.ShingleHashes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes what the matchers need from a field once when a document is indexed rather than for every search. The
+ * normalized value is written to <code>&lt;field&gt;_normalized</code> and the hashed shingle profile of the
+ * normalized value, see {@link ShingleHashes}, to <code>&lt;field&gt;_shingles</code>. Searches reading fields from
+ * doc values use these companion fields when they are mapped as <code>keyword</code> and <code>long</code>.
+ * <p>
+ * The processor also writes the codes of the phonetic matchers listed in <code>phonetic</code>, computed by
+ * {@link PhoneticSimilarity#encode(String)}, to <code>&lt;field&gt;_&lt;algorithm&gt;</code>, for instance
+ * <code>surname_double_metaphone</code>, so that phonetic matchers compare codes instead of encoding every document.
+ * <p>
+ * Of a multi-valued field all values are normalized, but only the profile of the smallest normalized value is
+ * written, since that is the value doc values searches read.
+ */
+public final class PrepareProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "similarity_prepare";
+
+    public static final String NORMALIZED_SUFFIX = "_normalized";
+    public static final String SHINGLES_SUFFIX = "_shingles";
+
+    private final String field;
+    private final boolean ignoreMissing;
+    private final List<PhoneticSimilarity> phonetics;
+
+    PrepareProcessor(String tag, String description, String field, boolean ignoreMissing,
+                     List<PhoneticSimilarity> phonetics) {
+        super(tag, description);
+        this.field = field;
+        this.ignoreMissing = ignoreMissing;
+        this.phonetics = phonetics;
+    }
+
+    /**
+     * @return the name of the field holding the phonetic codes of the given field.
+     */
+    public static String phoneticField(String field, PhoneticSimilarity.Algorithm algorithm) {
+        return field + "_" + algorithm.fieldName();
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+        if (value == null) {
+            if (ignoreMissing) {
+                return document;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot prepare it for matching.");
+        }
+        String smallest = null;
+        Object normalized;
+        if (value instanceof List) {
+            List<String> values = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                if (element != null) {
+                    String normalizedElement = MatcherService.normalize(element.toString());
+                    values.add(normalizedElement);
+                    // doc values are sorted by their UTF-8 bytes
+                    if (smallest == null || new BytesRef(normalizedElement).compareTo(new BytesRef(smallest)) < 0) {
+                        smallest = normalizedElement;
+                    }
+                }
+            }
+            normalized = values;
+        } else {
+            smallest = MatcherService.normalize(value.toString());
+            normalized = smallest;
+        }
+        List<Long> shingles = new ArrayList<>();
+        if (smallest != null) {
+            for (long hash : ShingleHashes.hashes(smallest, ShingleHashes.SHINGLE_SIZE)) {
+                shingles.add(hash);
+            }
+        }
+        document.setFieldValue(field + NORMALIZED_SUFFIX, normalized);
+        document.setFieldValue(field + SHINGLES_SUFFIX, shingles);
+        for (PhoneticSimilarity phonetic : phonetics) {
+            Object codes;
+            if (normalized instanceof List) {
+                List<String> values = new ArrayList<>();
+                for (Object element : (List<?>) normalized) {
+                    values.add(phonetic.encode((String) element));
+                }
+                codes = values;
+            } else {
+                codes = phonetic.encode((String) normalized);
+            }
+            document.setFieldValue(phoneticField(field, phonetic.algorithm()), codes);
+        }
+        return document;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public PrepareProcessor create(Map<String, Processor.Factory> registry, String tag, String description,
+                                       Map<String, Object> config) {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            List<String> matcherNames = ConfigurationUtils.readOptionalList(TYPE, tag, config, "phonetic");
+            List<PhoneticSimilarity> phonetics = new ArrayList<>();
+            if (matcherNames != null) {
+                for (String matcherName : matcherNames) {
+                    PhoneticSimilarity.Algorithm algorithm = MatcherService.phoneticAlgorithm(matcherName);
+                    if (algorithm == null) {
+                        throw ConfigurationUtils.newConfigurationException(TYPE, tag, "phonetic",
+                                "[" + matcherName + "] is not a phonetic matcher");
+                    }
+                    phonetics.add(new PhoneticSimilarity(algorithm));
+                }
+            }
+            return new PrepareProcessor(tag, description, field, ignoreMissing, phonetics);
+        }
+    }
+}
@@ -0,0 +1,908 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.PhoneticSimilarity;
+import org.intrahealth.elasticsearch.plugin.similarity.SimilarityStats;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedMatcher;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedShingleHashMatcher;
+import org.intrahealth.elasticsearch.plugin.similarity.script.FieldValueReader.FieldAccess;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The matcher configuration of a search compiled into flat arrays once per shard, so that scoring a document is a
+ * loop over resolved matchers without any string comparisons or map lookups.
+ */
+final class ExecutionPlan {
+
+    /**
+     * How the scores of the matchers are combined.
+     */
+    enum ScoreMode {
+        FELLEGI_SUNTER,
+        BAYES,
+        MULTIPLY,
+        SUM;
+
+        static ScoreMode fromString(String scoreMode) {
+            switch (scoreMode) {
+                case "fellegi-sunter":
+                    return FELLEGI_SUNTER;
+                case "bayes":
+                    return BAYES;
+                case "multiply":
+                    return MULTIPLY;
+                case "sum":
+                    return SUM;
+                default:
+                    throw new IllegalArgumentException(
+                            "Invalid parameter. Method can only be: fellegi-sunter, bayes, multiply or sum. Method is "
+                            + scoreMode);
+            }
+        }
+
+        /**
+         * @return the name of the score mode in the parameters.
+         */
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /**
+     * What to do when the document value or the query value of a matcher is empty.
+     */
+    enum NullHandling {
+        /**
+         * Run the matcher anyway.
+         */
+        OFF,
+        /**
+         * Count the field as not matching.
+         */
+        CONSERVATIVE,
+        /**
+         * Count the field as matching.
+         */
+        GREEDY,
+        /**
+         * Leave the field out of the score.
+         */
+        MODERATE;
+
+        static NullHandling fromString(String nullHandling) {
+            switch (nullHandling) {
+                case "conservative":
+                    return CONSERVATIVE;
+                case "greedy":
+                    return GREEDY;
+                case "moderate":
+                    return MODERATE;
+                default:
+                    return OFF;
+            }
+        }
+    }
+
+    private static final double NOT_SCORED = 2;
+
+    final ScoreMode scoreMode;
+    final double baseScore;
+    final int size;
+
+    final String[] fieldNames;
+    final String[] matcherNames;
+    /**
+     * The matchers prepared for each alternative query value, the best score against any of them is the score of the
+     * matcher.
+     */
+    final PreparedMatcher[][] matchers;
+    final boolean[] distance;
+    final boolean[] thresholded;
+    /**
+     * The null handling to apply when the document value is empty, resolved against the emptiness of the query value.
+     */
+    final NullHandling[] ifValueEmpty;
+    /**
+     * The null handling to apply when the document value is not empty, {@link NullHandling#OFF} unless the query
+     * value is empty.
+     */
+    final NullHandling[] ifValuePresent;
+    /**
+     * The alternative query values, a document with exactly the same value gets {@link #exactScores} without running
+     * the matcher. Null when the query value is empty.
+     */
+    final String[][] exactValues;
+    final double[] exactScores;
+    /**
+     * The score no alternative query value can improve on, which ends the matching of a document against the other
+     * alternatives. NaN if the scores of the matcher are not bounded by the score of an exact match.
+     */
+    final double[] bestScores;
+    final boolean[] normalizedTerms;
+
+    final double[] thresholds;
+    final double[] matchWeights;
+    final double[] unmatchWeights;
+    final double[] weights;
+    final double[] highs;
+    final double[] lows;
+
+    /**
+     * The largest contribution to the total score of each matcher when its score is not known yet: the better of the
+     * match and unmatch weights for fellegi-sunter, the high score for bayes, and the larger of the weighted smallest
+     * and largest scores of the matcher for multiply and sum.
+     */
+    final double[] upperScores;
+    /**
+     * The smallest contribution to the total score of each matcher when its score is not known yet.
+     */
+    final double[] lowerScores;
+    /**
+     * The matchers by increasing cost, the order in which the matchers that are not known to be cheap are run.
+     */
+    final int[] order;
+    /**
+     * Whether the upper bounds are sound, which needs non negative weights and matcher scores for multiply and high
+     * and low scores between 0 and 1 for bayes.
+     */
+    final boolean prunable;
+    /**
+     * Documents known to score below the minimum score are not scored any further, negative infinity if all
+     * documents are scored.
+     */
+    final double minScore;
+    /**
+     * Whether documents known to score at least the minimum score are not scored any further either.
+     */
+    final boolean earlyAccept;
+
+    /**
+     * The node level counters of each matcher.
+     */
+    final SimilarityStats.MatcherCounters[] counters;
+    /**
+     * The node level counter of the documents scored with the score mode.
+     */
+    final LongAdder scoreModeCounter;
+    /**
+     * One in how many matcher runs is timed, 0 if none are.
+     */
+    final int latencySampling;
+
+    private final MatcherService matcherService;
+    /* the alternative query values, kept to explain the unbounded scores of thresholded matchers */
+    private final String[][] queryValues;
+    /* whether the matchers of each field compare phonetic codes rather than values */
+    private final boolean[] codes;
+    private final FieldValueReader[] fieldReaders;
+    /* the fields holding the hashed shingle profiles of shingle matchers, null where there are none */
+    private final String[] shingleFields;
+
+    private ExecutionPlan(ScoreMode scoreMode, double baseScore, List<MatcherModel> models, MatcherService matcherService,
+                          FieldAccess fieldAccess, double minScore, boolean earlyAccept, SearchLookup lookup) {
+        this.scoreMode = scoreMode;
+        this.baseScore = baseScore;
+        this.size = models.size();
+        this.fieldNames = new String[size];
+        this.matcherNames = new String[size];
+        this.matchers = new PreparedMatcher[size][];
+        this.distance = new boolean[size];
+        this.thresholded = new boolean[size];
+        this.ifValueEmpty = new NullHandling[size];
+        this.ifValuePresent = new NullHandling[size];
+        this.exactValues = new String[size][];
+        this.exactScores = new double[size];
+        this.bestScores = new double[size];
+        this.normalizedTerms = new boolean[size];
+        this.thresholds = new double[size];
+        this.matchWeights = new double[size];
+        this.unmatchWeights = new double[size];
+        this.weights = new double[size];
+        this.highs = new double[size];
+        this.lows = new double[size];
+        this.upperScores = new double[size];
+        this.lowerScores = new double[size];
+        this.minScore = minScore;
+        this.earlyAccept = earlyAccept;
+        SimilarityStats stats = matcherService.stats();
+        this.counters = new SimilarityStats.MatcherCounters[size];
+        this.scoreModeCounter = stats.scoreMode(scoreMode.toString());
+        this.latencySampling = stats.latencySampling();
+        this.matcherService = matcherService;
+        this.queryValues = new String[size][];
+        this.codes = new boolean[size];
+        this.fieldReaders = new FieldValueReader[size];
+        this.shingleFields = new String[size];
+
+        boolean prunable = true;
+        for (int i = 0; i < size; i++) {
+            MatcherModel model = models.get(i);
+            fieldNames[i] = model.fieldName;
+            matcherNames[i] = model.matcherName;
+            // fellegi-sunter always compares against the threshold, sum and multiply only when one is set
+            thresholded[i] = scoreMode == ScoreMode.FELLEGI_SUNTER || model.threshold != 0.0;
+            PhoneticSimilarity.Algorithm phonetic = MatcherService.phoneticAlgorithm(model.matcherName);
+            String codeField = phonetic == null ? null
+                    : FieldValueReader.phoneticField(model.fieldName, phonetic, fieldAccess, lookup);
+            // phonetic matchers compare the codes indexed with the field rather than encoding every document value
+            if (codeField == null) {
+                matchers[i] = model.prepare(matcherService, thresholded[i]);
+            } else {
+                matchers[i] = new PreparedMatcher[model.values.length];
+                for (int a = 0; a < model.values.length; a++) {
+                    matchers[i][a] = matcherService.prepareCodes(model.matcherName, model.values[a]);
+                }
+            }
+            queryValues[i] = model.values;
+            codes[i] = codeField != null;
+            distance[i] = matcherService.isDistance(model.matcherName);
+            counters[i] = stats.matcher(model.matcherName);
+
+            NullHandling oneEmpty = NullHandling.fromString(model.nullHandling);
+            NullHandling bothEmpty = model.nullHandlingBoth.equals("") ? oneEmpty : NullHandling.fromString(model.nullHandlingBoth);
+            // alternatives are never empty, so the query value is empty when it is a single empty value
+            boolean queryEmpty = model.values[0].trim().isEmpty();
+            ifValueEmpty[i] = queryEmpty ? bothEmpty : oneEmpty;
+            ifValuePresent[i] = queryEmpty ? oneEmpty : NullHandling.OFF;
+            // values without phonetic codes never agree, not even with themselves, so equal values are no shortcut
+            exactValues[i] = queryEmpty || phonetic != null ? null : model.values;
+            exactScores[i] = matcherService.exactScore(model.matcherName);
+            // only the matchers whose range ends at the score of an exact match are known to top out there
+            if (distance[i] ? exactScores[i] <= matcherService.minScore(model.matcherName)
+                    : exactScores[i] >= matcherService.maxScore(model.matcherName)) {
+                bestScores[i] = exactScores[i];
+            } else {
+                bestScores[i] = Double.NaN;
+            }
+
+            thresholds[i] = model.threshold;
+            matchWeights[i] = model.match;
+            unmatchWeights[i] = model.unmatch;
+            weights[i] = model.weight;
+            highs[i] = model.high;
+            lows[i] = model.low;
+            fieldReaders[i] = codeField == null ? FieldValueReader.create(model.fieldName, fieldAccess, lookup)
+                    : FieldValueReader.createCodes(codeField, model.fieldName, phonetic, fieldAccess, lookup);
+            normalizedTerms[i] = model.normalizedTerms || fieldReaders[i].normalized();
+            if (matchers[i][0] instanceof PreparedShingleHashMatcher) {
+                shingleFields[i] = FieldValueReader.shingleField(model.fieldName, fieldAccess, lookup);
+            }
+
+            // thresholded scores are 1 or 0
+            double lowest = thresholded[i] ? 0.0 : matcherService.minScore(model.matcherName);
+            double highest = thresholded[i] ? 1.0 : matcherService.maxScore(model.matcherName);
+            switch (scoreMode) {
+                case FELLEGI_SUNTER:
+                    upperScores[i] = Math.max(matchWeights[i], unmatchWeights[i]);
+                    lowerScores[i] = Math.min(matchWeights[i], unmatchWeights[i]);
+                    break;
+                case BAYES:
+                    upperScores[i] = highs[i];
+                    lowerScores[i] = lows[i];
+                    prunable &= 0.0 <= lows[i] && lows[i] <= highs[i] && highs[i] <= 1.0;
+                    break;
+                case MULTIPLY:
+                    // the bounds of a product only hold when no factor can be negative
+                    upperScores[i] = weights[i] == 0.0 ? 0.0 : weights[i] * highest;
+                    lowerScores[i] = weights[i] == 0.0 ? 0.0 : weights[i] * lowest;
+                    prunable &= weights[i] >= 0.0 && lowest >= 0.0;
+                    break;
+                default:
+                    upperScores[i] = weights[i] == 0.0 ? 0.0 : Math.max(weights[i] * lowest, weights[i] * highest);
+                    lowerScores[i] = weights[i] == 0.0 ? 0.0 : Math.min(weights[i] * lowest, weights[i] * highest);
+            }
+        }
+        this.prunable = prunable;
+
+        Integer[] byCost = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            byCost[i] = i;
+        }
+        Arrays.sort(byCost, Comparator.comparingInt(i -> matcherService.cost(models.get(i).matcherName)));
+        this.order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = byCost[i];
+        }
+    }
+
+    /**
+     * Validate the script parameters and compile them into a plan. The parameters either hold the whole match
+     * configuration or reference a registered profile by name with the query values keyed by field.
+     *
+     * @param params         the parameters of the script.
+     * @param matcherService the service to prepare the matchers with.
+     * @param profiles       the match profiles registered on the node.
+     * @param lookup         the lookup of the current search.
+     *
+     * @return the compiled plan.
+     */
+    static ExecutionPlan compile(Map<String, Object> params, MatcherService matcherService, MatchProfiles profiles,
+                                 SearchLookup lookup) {
+        MatchProfile profile = MatchProfile.resolve(params, profiles);
+        double minScore = Double.NEGATIVE_INFINITY;
+        if (params.get("min_score") != null) {
+            minScore = Double.parseDouble(String.valueOf(params.get("min_score")));
+        }
+        boolean earlyAccept = Boolean.parseBoolean(String.valueOf(params.get("early_accept")));
+        return new ExecutionPlan(profile.scoreMode, profile.baseScore, profile.matchers, matcherService, profile.fieldAccess,
+                minScore, earlyAccept, lookup);
+    }
+
+    /**
+     * Compile the plan of a query record of a batch, which all share the same match configuration.
+     *
+     * @param profile        the match configuration of the batch.
+     * @param values         the query values of the record by field name.
+     * @param minScore       the lowest score of the matches of interest.
+     * @param matcherService the service to prepare the matchers with.
+     * @param lookup         the lookup of the shard.
+     *
+     * @return the compiled plan.
+     */
+    static ExecutionPlan compile(MatchProfile profile, Map<String, Object> values, double minScore, MatcherService matcherService,
+                                 SearchLookup lookup) {
+        return new ExecutionPlan(profile.scoreMode, profile.baseScore, profile.bind(values), matcherService, profile.fieldAccess,
+                minScore, false, lookup);
+    }
+
+    /**
+     * @return the plan bound to the documents of a segment.
+     */
+    Leaf getLeaf(LeafReaderContext ctx) throws IOException {
+        return getLeaf(ctx, null);
+    }
+
+    /**
+     * @param shared the field readers shared with the other plans of a batch, null to read the fields on its own.
+     *
+     * @return the plan bound to the documents of a segment.
+     */
+    Leaf getLeaf(LeafReaderContext ctx, FieldValueReader.SharedLeaves shared) throws IOException {
+        LeafFieldMatcher[] leafMatchers = new LeafFieldMatcher[size];
+        FieldValueReader.SharedLeaves leaves = shared;
+        for (int i = 0; i < size; i++) {
+            // the matchers of the alternative values read the value and the shingles of a document once between them
+            if (leaves == null && matchers[i].length > 1) {
+                leaves = new FieldValueReader.SharedLeaves(ctx);
+            }
+            LeafFieldMatcher.ShingleProfiles shingles = shingleFields[i] == null ? null
+                    : new LeafFieldMatcher.ShingleProfiles(DocValues.getSortedNumeric(ctx.reader(), shingleFields[i]));
+            LeafFieldMatcher[] alternatives = new LeafFieldMatcher[matchers[i].length];
+            for (int a = 0; a < alternatives.length; a++) {
+                FieldValueReader.Leaf values = leaves == null ? fieldReaders[i].getLeaf(ctx) : leaves.getLeaf(fieldReaders[i]);
+                alternatives[a] = LeafFieldMatcher.create(values, matchers[i][a], exactValue(i, a), exactScores[i],
+                        normalizedTerms[i], shingles, ctx.reader().maxDoc(), matcherService.circuitBreaker());
+            }
+            leafMatchers[i] = LeafFieldMatcher.bestOf(alternatives, distance[i], bestScores[i]);
+        }
+        return new Leaf(leafMatchers);
+    }
+
+    /**
+     * @param values a reader of the values of each matcher field, in the order of the matchers.
+     *
+     * @return the plan bound to values that do not come from an index, such as the documents of a benchmark.
+     */
+    Leaf getLeaf(FieldValueReader.Leaf[] values) throws IOException {
+        LeafFieldMatcher[] leafMatchers = new LeafFieldMatcher[size];
+        for (int i = 0; i < size; i++) {
+            FieldValueReader.Leaf leaf = matchers[i].length > 1 ? FieldValueReader.lastValue(values[i]) : values[i];
+            LeafFieldMatcher[] alternatives = new LeafFieldMatcher[matchers[i].length];
+            for (int a = 0; a < alternatives.length; a++) {
+                alternatives[a] = LeafFieldMatcher.create(leaf, matchers[i][a], exactValue(i, a), exactScores[i],
+                        normalizedTerms[i], null, Integer.MAX_VALUE, null);
+            }
+            leafMatchers[i] = LeafFieldMatcher.bestOf(alternatives, distance[i], bestScores[i]);
+        }
+        return new Leaf(leafMatchers);
+    }
+
+    private String exactValue(int matcher, int alternative) {
+        return exactValues[matcher] == null ? null : exactValues[matcher][alternative];
+    }
+
+    /**
+     * The documents of a segment that may score at least <code>minScore</code>. When a document without a value
+     * for one of the fields can never reach the minimum score, only the documents with doc values for that field are
+     * candidates.
+     *
+     * @return an iterator over the candidates.
+     */
+    DocIdSetIterator candidates(LeafReaderContext ctx, double minScore) throws IOException {
+        if (minScore != Double.NEGATIVE_INFINITY) {
+            for (int i = 0; i < size; i++) {
+                if (maxScore(i) < minScore) {
+                    DocIdSetIterator presence = fieldReaders[i].presence(ctx);
+                    if (presence != null) {
+                        return presence;
+                    }
+                }
+            }
+        }
+        return DocIdSetIterator.all(ctx.reader().maxDoc());
+    }
+
+    /**
+     * @return an upper bound of the score of any document.
+     */
+    double maxScore() {
+        return maxScore(-1);
+    }
+
+    /*
+     * An upper bound of the score of the documents that do not have a value for the given field, of all documents if
+     * the field is -1.
+     */
+    private double maxScore(int missingField) {
+        if (prunable == false) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double totalScore = scoreMode == ScoreMode.FELLEGI_SUNTER ? baseScore : scoreMode == ScoreMode.MULTIPLY ? 1.0 : 0.0;
+        boolean allModerate = true;
+        for (int i = 0; i < size; i++) {
+            double upper = upperContribution(ifValueEmpty[i], i);
+            boolean moderate = ifValueEmpty[i] == NullHandling.MODERATE;
+            if (i != missingField) {
+                upper = Math.max(upper, upperContribution(ifValuePresent[i], i));
+                moderate |= ifValuePresent[i] == NullHandling.MODERATE;
+            }
+            allModerate &= moderate;
+            if (scoreMode == ScoreMode.MULTIPLY) {
+                totalScore *= upper;
+            } else if (scoreMode != ScoreMode.BAYES) {
+                totalScore += upper;
+            }
+        }
+        if (scoreMode == ScoreMode.BAYES) {
+            // naive Bayes combines scores between 0 and 1 into a score between 0 and 1
+            return allModerate ? NOT_SCORED : 1.0;
+        }
+        // zero times an unbounded score
+        return Double.isNaN(totalScore) ? Double.POSITIVE_INFINITY : totalScore;
+    }
+
+    /*
+     * The largest contribution of a matcher to the total score with the given null handling.
+     */
+    private double upperContribution(NullHandling nullHandling, int i) {
+        switch (nullHandling) {
+            case CONSERVATIVE:
+                return scoreMode == ScoreMode.FELLEGI_SUNTER ? unmatchWeights[i] : scoreMode == ScoreMode.BAYES ? lows[i] : 0.0;
+            case GREEDY:
+                return scoreMode == ScoreMode.FELLEGI_SUNTER ? matchWeights[i] : scoreMode == ScoreMode.BAYES ? highs[i] : weights[i];
+            case MODERATE:
+                return scoreMode == ScoreMode.MULTIPLY ? 1.0 : 0.0;
+            default:
+                return upperScores[i];
+        }
+    }
+
+    /**
+     * Scores the documents of a segment. Each document is scored in two passes: the values of all fields are read
+     * first, along with the scores that are known without running the matchers, such as exact matches and edit
+     * distances ruled out by the difference of the lengths. Only then are the remaining matchers run, and not at all
+     * if the document can no longer reach the minimum score.
+     */
+    final class Leaf {
+
+        private final LeafFieldMatcher[] leafMatchers;
+        private final NullHandling[] nullHandlings = new NullHandling[size];
+        private final boolean[] known = new boolean[size];
+        private final double[] scores = new double[size];
+        /* the matcher runs left until the next one is timed */
+        private int untilSample = latencySampling;
+
+        private Leaf(LeafFieldMatcher[] leafMatchers) {
+            this.leafMatchers = leafMatchers;
+        }
+
+        /**
+         * Score a document against the minimum score of the plan.
+         *
+         * @param docId the segment relative id of the document.
+         *
+         * @return the combined score of all matchers, or a bound of it, see {@link #score(int, double)}.
+         */
+        double score(int docId) {
+            return score(docId, minScore);
+        }
+
+        /**
+         * Score a document. The matchers whose score is not known up front run by increasing cost, and the document
+         * is not scored any further once its score is known to be below <code>rejectBelow</code>, or known to be at
+         * least the minimum score of the plan if it accepts documents early.
+         *
+         * @param docId       the segment relative id of the document.
+         * @param rejectBelow the lowest score of the documents that are of interest.
+         *
+         * @return the combined score of all matchers. For documents that are rejected early it is an upper bound of
+         * the score below <code>rejectBelow</code>, and for documents that are accepted early a lower bound of the
+         * score at least the minimum score.
+         */
+        double score(int docId, double rejectBelow) {
+            scoreModeCounter.increment();
+            boolean pending = false;
+            for (int i = 0; i < size; i++) {
+                nullHandlings[i] = leafMatchers[i].advance(docId) ? ifValuePresent[i] : ifValueEmpty[i];
+                known[i] = true;
+                switch (nullHandlings[i]) {
+                    case CONSERVATIVE:
+                        counters[i].conservative();
+                        break;
+                    case GREEDY:
+                        counters[i].greedy();
+                        break;
+                    case MODERATE:
+                        counters[i].moderate();
+                        break;
+                    default:
+                        scores[i] = leafMatchers[i].quickScore();
+                        known[i] = Double.isNaN(scores[i]) == false;
+                        if (known[i]) {
+                            counters[i].shortcut();
+                        }
+                        pending |= known[i] == false;
+                }
+            }
+            if (pending == false) {
+                return combine(null);
+            }
+            double acceptAt = earlyAccept ? minScore : Double.POSITIVE_INFINITY;
+            boolean bounded = prunable && (rejectBelow != Double.NEGATIVE_INFINITY || acceptAt != Double.POSITIVE_INFINITY);
+            for (int k = 0; k < size; k++) {
+                if (bounded) {
+                    double upper = combine(upperScores);
+                    if (upper < rejectBelow) {
+                        return upper;
+                    }
+                    double lower = combine(lowerScores);
+                    if (lower >= acceptAt) {
+                        return lower;
+                    }
+                }
+                int i = order[k];
+                if (known[i] == false) {
+                    scores[i] = run(i);
+                    known[i] = true;
+                }
+            }
+            return combine(null);
+        }
+
+        /**
+         * Score a document with every matcher, without rejecting or accepting it early, and break the score down
+         * by matcher. Only used when explaining, so that scoring never builds explanations.
+         *
+         * @param docId the segment relative id of the document.
+         *
+         * @return the explanation of the score, its value is the combined score of all matchers.
+         */
+        Explanation explain(int docId) {
+            boolean[] documentEmpty = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                documentEmpty[i] = leafMatchers[i].advance(docId) == false;
+                nullHandlings[i] = documentEmpty[i] ? ifValueEmpty[i] : ifValuePresent[i];
+                known[i] = true;
+                if (nullHandlings[i] == NullHandling.OFF) {
+                    scores[i] = leafMatchers[i].score();
+                }
+            }
+            double totalScore = combine(null);
+
+            List<Explanation> details = new ArrayList<>(size + 1);
+            if (scoreMode == ScoreMode.FELLEGI_SUNTER) {
+                details.add(Explanation.match(baseScore, "base_score"));
+            }
+            for (int i = 0; i < size; i++) {
+                details.add(explainMatcher(i, documentEmpty[i]));
+            }
+            return Explanation.match(totalScore, "string similarity score, score mode [" + scoreMode + "]", details);
+        }
+
+        /*
+         * The contribution of a matcher to the total score along with the null handling, the matcher score and the
+         * threshold that decided it. Reads the state left by explain.
+         */
+        private Explanation explainMatcher(int i, boolean documentEmpty) {
+            List<Explanation> details = new ArrayList<>(3);
+            double contribution;
+            if (nullHandlings[i] != NullHandling.OFF) {
+                String nullHandling = nullHandlings[i].name().toLowerCase(Locale.ROOT);
+                details.add(Explanation.noMatch("null_handling [" + nullHandling + "], the "
+                        + (documentEmpty ? "document" : "query") + " value is empty"));
+                contribution = nullContribution(nullHandlings[i], i);
+            } else {
+                details.add(Explanation.match(rawScore(i), "matcher score"));
+                boolean met = meetsThreshold(i, scores[i]);
+                if (thresholded[i] && scoreMode != ScoreMode.BAYES) {
+                    details.add(Explanation.match(thresholds[i], "threshold, " + (met ? "met" : "not met")));
+                }
+                switch (scoreMode) {
+                    case FELLEGI_SUNTER:
+                        contribution = met ? matchWeights[i] : unmatchWeights[i];
+                        details.add(Explanation.match(contribution, met ? "match weight" : "unmatch weight"));
+                        break;
+                    case BAYES:
+                        contribution = Math.max(lows[i], Math.min(highs[i], scores[i]));
+                        details.add(Explanation.match(contribution, "matcher score bounded to [" + lows[i] + ", "
+                                + highs[i] + "]"));
+                        break;
+                    default:
+                        contribution = thresholdedScore(i, scores[i]) * weights[i];
+                        details.add(Explanation.match(weights[i], "weight"));
+                }
+            }
+            String description = "field [" + fieldNames[i] + "] matched with [" + matcherNames[i] + "]";
+            if (nullHandlings[i] == NullHandling.MODERATE) {
+                return Explanation.noMatch(description + ", left out of the score", details);
+            }
+            switch (scoreMode) {
+                case BAYES:
+                    description += ", probability combined with naive Bayes";
+                    break;
+                case MULTIPLY:
+                    description += ", factor of the score";
+                    break;
+                default:
+                    description += ", added to the score";
+            }
+            return Explanation.match(contribution, description, details);
+        }
+
+        /*
+         * The score of a matcher without the bound of its threshold. Thresholded edit distances give up once they
+         * are known to be above the threshold, so the score they leave does not tell how far above it the value is.
+         */
+        private double rawScore(int i) {
+            if (thresholded[i] == false || codes[i]) {
+                return scores[i];
+            }
+            String value = leafMatchers[i].value();
+            double best = Double.NaN;
+            for (String query : queryValues[i]) {
+                double score = matcherService.matchScore(matcherNames[i], query, value);
+                if (Double.isNaN(best) || (distance[i] ? score < best : score > best)) {
+                    best = score;
+                }
+            }
+            return best;
+        }
+
+        /*
+         * The contribution of a matcher whose outcome is decided by the null handling, as combine counts it.
+         */
+        private double nullContribution(NullHandling nullHandling, int i) {
+            boolean greedy = nullHandling == NullHandling.GREEDY;
+            switch (scoreMode) {
+                case FELLEGI_SUNTER:
+                    return greedy ? matchWeights[i] : unmatchWeights[i];
+                case BAYES:
+                    return greedy ? highs[i] : lows[i];
+                default:
+                    return greedy ? weights[i] : 0.0;
+            }
+        }
+
+        /*
+         * Run a matcher, timing one run in every latencySampling runs.
+         */
+        private double run(int i) {
+            counters[i].invoked();
+            if (latencySampling == 0 || --untilSample > 0) {
+                return leafMatchers[i].score();
+            }
+            untilSample = latencySampling;
+            long start = System.nanoTime();
+            double score = leafMatchers[i].score();
+            counters[i].sampled(System.nanoTime() - start);
+            return score;
+        }
+
+        /*
+         * Combine the scores of the matchers, using the given bounds for the contribution of the matchers that did
+         * not run yet. The bounds are only read when some scores are not known.
+         */
+        private double combine(double[] bounds) {
+            switch (scoreMode) {
+                case FELLEGI_SUNTER:
+                    return fellegiSunter(bounds);
+                case BAYES:
+                    return bayes(bounds);
+                case MULTIPLY:
+                    return multiply(bounds);
+                default:
+                    return sum(bounds);
+            }
+        }
+
+        private double fellegiSunter(double[] bounds) {
+            double totalScore = baseScore;
+            for (int i = 0; i < size; i++) {
+                switch (nullHandlings[i]) {
+                    case CONSERVATIVE:
+                        totalScore += unmatchWeights[i];
+                        break;
+                    case GREEDY:
+                        totalScore += matchWeights[i];
+                        break;
+                    case MODERATE:
+                        // No change to score if moderate
+                        break;
+                    default:
+                        if (known[i] == false) {
+                            totalScore += bounds[i];
+                        } else {
+                            totalScore += meetsThreshold(i, scores[i]) ? matchWeights[i] : unmatchWeights[i];
+                        }
+                }
+            }
+            return totalScore;
+        }
+
+        private double bayes(double[] bounds) {
+            double totalScore = NOT_SCORED;
+            for (int i = 0; i < size; i++) {
+                double score;
+                switch (nullHandlings[i]) {
+                    case CONSERVATIVE:
+                        score = lows[i];
+                        break;
+                    case GREEDY:
+                        score = highs[i];
+                        break;
+                    case MODERATE:
+                        // No change to score if moderate
+                        continue;
+                    default:
+                        if (known[i] == false) {
+                            score = bounds[i];
+                        } else {
+                            score = scores[i];
+                            if (score > highs[i]) {
+                                score = highs[i];
+                            }
+                            if (score < lows[i]) {
+                                score = lows[i];
+                            }
+                        }
+                }
+                totalScore = totalScore == NOT_SCORED ? score : combineScores(totalScore, score);
+            }
+            return totalScore;
+        }
+
+        private double multiply(double[] bounds) {
+            double totalScore = 1.0;
+            for (int i = 0; i < size; i++) {
+                double score;
+                switch (nullHandlings[i]) {
+                    case CONSERVATIVE:
+                        score = 0.0;
+                        break;
+                    case GREEDY:
+                        // This result will be a bit odd without a threshold set
+                        score = 1.0;
+                        break;
+                    case MODERATE:
+                        // No change to score if moderate
+                        continue;
+                    default:
+                        if (known[i] == false) {
+                            totalScore = totalScore * bounds[i];
+                            continue;
+                        }
+                        score = thresholdedScore(i, scores[i]);
+                }
+                totalScore = totalScore * score * weights[i];
+            }
+            return totalScore;
+        }
+
+        private double sum(double[] bounds) {
+            double totalScore = 0.0;
+            for (int i = 0; i < size; i++) {
+                double score;
+                switch (nullHandlings[i]) {
+                    case CONSERVATIVE:
+                    case MODERATE:
+                        // Moderate is the same as conservative when doing sum
+                        score = 0.0;
+                        break;
+                    case GREEDY:
+                        // This result will be a bit odd without a threshold set
+                        score = 1.0;
+                        break;
+                    default:
+                        if (known[i] == false) {
+                            totalScore += bounds[i];
+                            continue;
+                        }
+                        score = thresholdedScore(i, scores[i]);
+                }
+                totalScore += score * weights[i];
+            }
+            return totalScore;
+        }
+    }
+
+    /**
+     * Flatten an explanation into a single description, for script explanations which only take a description.
+     */
+    static String describe(Explanation explanation) {
+        StringBuilder description = new StringBuilder(explanation.getDescription());
+        describeDetails(explanation, description);
+        return description.toString();
+    }
+
+    private static void describeDetails(Explanation explanation, StringBuilder description) {
+        Explanation[] details = explanation.getDetails();
+        if (details.length == 0) {
+            return;
+        }
+        description.append(" (");
+        for (int i = 0; i < details.length; i++) {
+            if (i > 0) {
+                description.append(", ");
+            }
+            description.append(details[i].getValue()).append(" = ").append(details[i].getDescription());
+            describeDetails(details[i], description);
+        }
+        description.append(')');
+    }
+
+    private boolean meetsThreshold(int i, double score) {
+        return distance[i] ? score <= thresholds[i] : score >= thresholds[i];
+    }
+
+    /*
+     * The score of a matcher for sum and multiply, 1 or 0 depending on the threshold if one is set.
+     */
+    private double thresholdedScore(int i, double score) {
+        if (thresholded[i]) {
+            score = meetsThreshold(i, score) ? 1.0 : 0.0;
+        }
+        return score;
+    }
+
+    /**
+     * From: https://github.com/larsga/Duke/blob/master/duke-core/src/main/java/no/priv/garshol/duke/utils/Utils.java
+     * Combines two probabilities using Bayes' theorem. This is the
+     * approach known as "naive Bayes", very well explained here:
+     * http://www.paulgraham.com/naivebayes.html
+     */
+    private static double combineScores(double score1, double score2) {
+        return (score1 * score2) / ((score1 * score2) + ((1.0 - score1) * (1.0 - score2)));
+    }
+}
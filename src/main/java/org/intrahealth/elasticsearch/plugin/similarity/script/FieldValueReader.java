@@ -0,0 +1,619 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.index.mapper.DateFieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.PhoneticSimilarity;
+import org.intrahealth.elasticsearch.plugin.similarity.ingest.PrepareProcessor;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Reads the value of a matcher field for the documents of a segment. The way the field is read is resolved once per
+ * search from the field mapping and the requested {@link FieldAccess}, and each segment then gets its own
+ * {@link Leaf} reader.
+ */
+abstract class FieldValueReader {
+
+    /**
+     * How the field values are loaded for each document.
+     */
+    enum FieldAccess {
+        /**
+         * Read the value from the parsed <code>_source</code> of the document.
+         */
+        SOURCE,
+        /**
+         * Read keyword, date and numeric fields from the per-segment doc values and fall back to
+         * <code>_source</code> for any other field.
+         */
+        DOC_VALUES,
+        /**
+         * Like {@link #DOC_VALUES}, but keyword fields are read as ordinals so that each distinct value of a segment
+         * is only matched once.
+         */
+        ORDINALS;
+
+        static FieldAccess fromString(String fieldAccess) {
+            switch (fieldAccess) {
+                case "source":
+                    return SOURCE;
+                case "doc_values":
+                    return DOC_VALUES;
+                case "ordinals":
+                    return ORDINALS;
+                default:
+                    throw new IllegalArgumentException(
+                            "Invalid parameter. field_access can only be: source, doc_values or ordinals. field_access is "
+                            + fieldAccess);
+            }
+        }
+    }
+
+    /**
+     * Reads the value of the field for documents of a single segment. Documents must be read in increasing doc id
+     * order because doc values can only be iterated forward.
+     */
+    interface Leaf {
+        /**
+         * @param docId the segment relative id of the document.
+         *
+         * @return the value of the field, or an empty string if the document does not have one. Fields read in
+         * source mode are read as <code>String.valueOf</code> of their source value instead.
+         */
+        String read(int docId) throws IOException;
+    }
+
+    /**
+     * Reads a date field as a number of days since 1970-01-01 so that dates can be matched without formatting them.
+     */
+    interface DateLeaf extends Leaf {
+        /**
+         * @param docId the segment relative id of the document.
+         *
+         * @return the day of the date of the document, or {@link #MISSING_DAY} if the document does not have one.
+         */
+        long readEpochDay(int docId) throws IOException;
+    }
+
+    /**
+     * Exposes the sorted set doc values of a keyword field so that values can be handled by ordinal.
+     */
+    interface OrdinalLeaf extends Leaf {
+        /**
+         * @return the doc values of the segment. They must not be iterated while {@link #read(int)} is used.
+         */
+        SortedSetDocValues ordinals();
+
+        /**
+         * @return the reader of the values of the documents without ordinals, or null if they are empty.
+         */
+        default Leaf fallback() {
+            return null;
+        }
+    }
+
+    /**
+     * Returned by {@link DateLeaf#readEpochDay(int)} for documents without a value.
+     */
+    static final long MISSING_DAY = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long NANOS_PER_DAY = MILLIS_PER_DAY * 1_000_000L;
+    /* whole numbers below this are exact in a double, and formatted like the longs they are */
+    private static final double WHOLE_NUMBER_LIMIT = 1e15;
+
+    protected final String fieldName;
+
+    private FieldValueReader(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * @return the reader to use for the documents of the given segment.
+     */
+    abstract Leaf getLeaf(LeafReaderContext ctx) throws IOException;
+
+    /**
+     * @return an iterator over the documents of the segment that have doc values for the field, or null if the field
+     * is not read from doc values.
+     */
+    DocIdSetIterator presence(LeafReaderContext ctx) throws IOException {
+        return null;
+    }
+
+    /**
+     * @return true if the values read are normalized already, as they are when the normalized companion field of the
+     * field is read.
+     */
+    boolean normalized() {
+        return false;
+    }
+
+    /**
+     * Choose how the given field is read based on its mapping. The normalized companion field written by the
+     * <code>similarity_prepare</code> ingest processor is read instead of the field when it exists, and the field
+     * itself for the documents indexed without the processor.
+     *
+     * @param fieldName   the name of the field to be matched.
+     * @param fieldAccess the requested access mode.
+     * @param lookup      the lookup of the current search.
+     *
+     * @return a reader for the field.
+     */
+    static FieldValueReader create(String fieldName, FieldAccess fieldAccess, SearchLookup lookup) {
+        if (fieldAccess == FieldAccess.SOURCE) {
+            return new SourceReader(fieldName, lookup, false);
+        }
+        MappedFieldType normalized = lookup.doc().mapperService().fieldType(fieldName + PrepareProcessor.NORMALIZED_SUFFIX);
+        if (normalized != null && normalized.hasDocValues() && "keyword".equals(normalized.typeName())) {
+            return new CompanionReader(new KeywordReader(normalized.name(), fieldAccess == FieldAccess.ORDINALS, true),
+                    fieldReader(fieldName, FieldAccess.DOC_VALUES, lookup), MatcherService::normalize);
+        }
+        return fieldReader(fieldName, fieldAccess, lookup);
+    }
+
+    /*
+     * Choose how the given field itself is read based on its mapping.
+     */
+    private static FieldValueReader fieldReader(String fieldName, FieldAccess fieldAccess, SearchLookup lookup) {
+        MappedFieldType fieldType = lookup.doc().mapperService().fieldType(fieldName);
+        if (fieldType == null || fieldType.hasDocValues() == false) {
+            return new SourceReader(fieldName, lookup, true);
+        }
+        switch (fieldType.typeName()) {
+            case "keyword":
+                return new KeywordReader(fieldName, fieldAccess == FieldAccess.ORDINALS, false);
+            case "long":
+            case "integer":
+            case "short":
+            case "byte":
+                return new NumericReader(fieldName, Long::toString);
+            case "double":
+                return new NumericReader(fieldName, value -> formatDouble(NumericUtils.sortableLongToDouble(value)));
+            case "float":
+                return new NumericReader(fieldName, value -> formatFloat(NumericUtils.sortableIntToFloat((int) value)));
+            case "date":
+                return new DateReader(fieldName, MILLIS_PER_DAY);
+            case "date_nanos":
+                return new DateReader(fieldName, NANOS_PER_DAY);
+            default:
+                return new SourceReader(fieldName, lookup, true);
+        }
+    }
+
+    /*
+     * Whole numbers are formatted without a fraction whether they are read from doc values or from the source of a
+     * field without doc values, where they may have been written either way.
+     */
+    private static String formatDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < WHOLE_NUMBER_LIMIT) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String formatFloat(float value) {
+        if (value == Math.rint(value) && Math.abs(value) < WHOLE_NUMBER_LIMIT) {
+            return Long.toString((long) value);
+        }
+        return Float.toString(value);
+    }
+
+    /**
+     * Finds the hashed shingle profiles of a field written by the <code>similarity_prepare</code> ingest processor.
+     *
+     * @return the name of the field holding the profiles, or null if the field has none or is read from the source.
+     */
+    static String shingleField(String fieldName, FieldAccess fieldAccess, SearchLookup lookup) {
+        if (fieldAccess == FieldAccess.SOURCE) {
+            return null;
+        }
+        // the profiles are those of the normalized values, which are only read when the companion field is mapped
+        MappedFieldType normalized = lookup.doc().mapperService().fieldType(fieldName + PrepareProcessor.NORMALIZED_SUFFIX);
+        if (normalized == null || normalized.hasDocValues() == false || "keyword".equals(normalized.typeName()) == false) {
+            return null;
+        }
+        MappedFieldType shingles = lookup.doc().mapperService().fieldType(fieldName + PrepareProcessor.SHINGLES_SUFFIX);
+        if (shingles == null || shingles.hasDocValues() == false || "long".equals(shingles.typeName()) == false) {
+            return null;
+        }
+        return shingles.name();
+    }
+
+    /**
+     * Finds the phonetic codes of a field written by the <code>similarity_prepare</code> ingest processor.
+     *
+     * @return the name of the field holding the codes, or null if the field has none or is read from the source.
+     */
+    static String phoneticField(String fieldName, PhoneticSimilarity.Algorithm algorithm, FieldAccess fieldAccess,
+                                SearchLookup lookup) {
+        if (fieldAccess == FieldAccess.SOURCE) {
+            return null;
+        }
+        MappedFieldType codes = lookup.doc().mapperService().fieldType(PrepareProcessor.phoneticField(fieldName, algorithm));
+        if (codes == null || codes.hasDocValues() == false || "keyword".equals(codes.typeName()) == false) {
+            return null;
+        }
+        return codes.name();
+    }
+
+    /**
+     * Reads the phonetic codes of a field written by the <code>similarity_prepare</code> ingest processor, and
+     * encodes the value of the field for the documents indexed without the processor.
+     *
+     * @param codeField   the field holding the codes, see {@link #phoneticField}.
+     * @param fieldName   the name of the field to be matched.
+     * @param algorithm   the algorithm the codes were computed with.
+     * @param fieldAccess the requested access mode.
+     * @param lookup      the lookup of the current search.
+     *
+     * @return a reader of the codes of the field.
+     */
+    static FieldValueReader createCodes(String codeField, String fieldName, PhoneticSimilarity.Algorithm algorithm,
+                                        FieldAccess fieldAccess, SearchLookup lookup) {
+        PhoneticSimilarity phonetic = new PhoneticSimilarity(algorithm);
+        return new CompanionReader(new KeywordReader(codeField, fieldAccess == FieldAccess.ORDINALS, false),
+                create(fieldName, FieldAccess.DOC_VALUES, lookup), value -> phonetic.encode(MatcherService.normalize(value)));
+    }
+
+    /**
+     * The readers of the fields of a segment shared by the plans of a batch, so that each field of a document is read
+     * once however many query records the document is scored against. The plans must visit the documents in the same
+     * increasing doc id order. Ordinals are iterated by each plan on its own and are not shared.
+     */
+    static final class SharedLeaves {
+
+        private final LeafReaderContext ctx;
+        private final Map<String, Leaf> leaves = new HashMap<>();
+
+        SharedLeaves(LeafReaderContext ctx) {
+            this.ctx = ctx;
+        }
+
+        Leaf getLeaf(FieldValueReader reader) throws IOException {
+            // the plans of a batch share their match configuration, so a field is always read the same way
+            Leaf leaf = leaves.get(reader.fieldName);
+            if (leaf == null) {
+                leaf = reader.getLeaf(ctx);
+                if (leaf instanceof OrdinalLeaf) {
+                    return leaf;
+                }
+                leaf = lastValue(leaf);
+                leaves.put(reader.fieldName, leaf);
+            }
+            return leaf;
+        }
+    }
+
+    /**
+     * @return a reader that only reads the value of a document once however many times it is asked for it, and
+     * keeps reading dates as days. Ordinals are returned as they are since they are iterated rather than read.
+     */
+    static Leaf lastValue(Leaf leaf) {
+        if (leaf instanceof OrdinalLeaf) {
+            return leaf;
+        }
+        return leaf instanceof DateLeaf ? new LastDateLeaf((DateLeaf) leaf) : new LastValueLeaf(leaf);
+    }
+
+    /*
+     * Keeps the value of the last document read.
+     */
+    private static final class LastValueLeaf implements Leaf {
+
+        private final Leaf leaf;
+        private int docId = -1;
+        private String value;
+
+        LastValueLeaf(Leaf leaf) {
+            this.leaf = leaf;
+        }
+
+        @Override
+        public String read(int docId) throws IOException {
+            if (docId != this.docId) {
+                value = leaf.read(docId);
+                this.docId = docId;
+            }
+            return value;
+        }
+    }
+
+    /*
+     * Keeps the day of the last document read.
+     */
+    private static final class LastDateLeaf implements DateLeaf {
+
+        private final DateLeaf leaf;
+        private int docId = -1;
+        private long epochDay;
+
+        LastDateLeaf(DateLeaf leaf) {
+            this.leaf = leaf;
+        }
+
+        @Override
+        public long readEpochDay(int docId) throws IOException {
+            if (docId != this.docId) {
+                epochDay = leaf.readEpochDay(docId);
+                this.docId = docId;
+            }
+            return epochDay;
+        }
+
+        @Override
+        public String read(int docId) throws IOException {
+            long epochDay = readEpochDay(docId);
+            return epochDay == MISSING_DAY ? "" : LocalDate.ofEpochDay(epochDay).toString();
+        }
+    }
+
+    /*
+     * Reads the field from the source of the document. In source mode the value is read as it always was, a missing
+     * field as the string "null", and only the fallback of the doc values modes formats values like doc values.
+     */
+    private static class SourceReader extends FieldValueReader {
+
+        private final SearchLookup lookup;
+        private final boolean formatted;
+
+        SourceReader(String fieldName, SearchLookup lookup, boolean formatted) {
+            super(fieldName);
+            this.lookup = lookup;
+            this.formatted = formatted;
+        }
+
+        @Override
+        Leaf getLeaf(LeafReaderContext ctx) {
+            if (formatted == false) {
+                return docId -> {
+                    lookup.source().setSegmentAndDocument(ctx, docId);
+                    return String.valueOf(lookup.source().get(fieldName));
+                };
+            }
+            MappedFieldType fieldType = lookup.doc().mapperService().fieldType(fieldName);
+            DateFieldMapper.DateFieldType dateType = fieldType instanceof DateFieldMapper.DateFieldType
+                    ? (DateFieldMapper.DateFieldType) fieldType : null;
+            return docId -> {
+                lookup.source().setSegmentAndDocument(ctx, docId);
+                return format(lookup.source().get(fieldName), dateType);
+            };
+        }
+
+        /*
+         * Formats a source value the way the same value is read from doc values.
+         */
+        private static String format(Object value, DateFieldMapper.DateFieldType dateType) {
+            if (value == null) {
+                return "";
+            }
+            if (dateType != null) {
+                try {
+                    Instant instant = dateType.resolution().toInstant(dateType.parse(String.valueOf(value)));
+                    return LocalDate.ofInstant(instant, ZoneOffset.UTC).toString();
+                } catch (RuntimeException e) {
+                    // a malformed date is matched as it is
+                    return String.valueOf(value);
+                }
+            }
+            if (value instanceof Double) {
+                return formatDouble((Double) value);
+            }
+            if (value instanceof Float) {
+                return formatFloat((Float) value);
+            }
+            return String.valueOf(value);
+        }
+    }
+
+    /*
+     * Reads a companion field written by the similarity_prepare ingest processor, and derives the value from the
+     * field itself for the documents without a companion value, such as those indexed before the processor was
+     * added to the pipeline. Those documents may have a value, so the presence of the companion field does not rule
+     * any document out.
+     */
+    private static class CompanionReader extends FieldValueReader {
+
+        private final FieldValueReader companion;
+        private final FieldValueReader field;
+        private final UnaryOperator<String> derive;
+
+        CompanionReader(FieldValueReader companion, FieldValueReader field, UnaryOperator<String> derive) {
+            super(companion.fieldName);
+            this.companion = companion;
+            this.field = field;
+            this.derive = derive;
+        }
+
+        @Override
+        boolean normalized() {
+            return companion.normalized();
+        }
+
+        @Override
+        Leaf getLeaf(LeafReaderContext ctx) throws IOException {
+            Leaf companionLeaf = companion.getLeaf(ctx);
+            Leaf fieldLeaf = field.getLeaf(ctx);
+            Leaf fallback = docId -> {
+                String value = fieldLeaf.read(docId);
+                return value.trim().isEmpty() ? "" : derive.apply(value);
+            };
+            Leaf leaf = docId -> {
+                String value = companionLeaf.read(docId);
+                return value.isEmpty() ? fallback.read(docId) : value;
+            };
+            if (companionLeaf instanceof OrdinalLeaf == false) {
+                return leaf;
+            }
+            return new OrdinalLeaf() {
+                @Override
+                public SortedSetDocValues ordinals() {
+                    return ((OrdinalLeaf) companionLeaf).ordinals();
+                }
+
+                @Override
+                public Leaf fallback() {
+                    return fallback;
+                }
+
+                @Override
+                public String read(int docId) throws IOException {
+                    return leaf.read(docId);
+                }
+            };
+        }
+    }
+
+    /*
+     * Reads the first value of a keyword field from its sorted set doc values.
+     */
+    private static class KeywordReader extends FieldValueReader {
+
+        private final boolean ordinals;
+        private final boolean normalized;
+
+        KeywordReader(String fieldName, boolean ordinals, boolean normalized) {
+            super(fieldName);
+            this.ordinals = ordinals;
+            this.normalized = normalized;
+        }
+
+        @Override
+        boolean normalized() {
+            return normalized;
+        }
+
+        @Override
+        Leaf getLeaf(LeafReaderContext ctx) throws IOException {
+            SortedSetDocValues values = DocValues.getSortedSet(ctx.reader(), fieldName);
+            Leaf leaf = docId -> {
+                if (values.advanceExact(docId) == false) {
+                    return "";
+                }
+                return values.lookupOrd(values.nextOrd()).utf8ToString();
+            };
+            if (ordinals == false) {
+                return leaf;
+            }
+            return new OrdinalLeaf() {
+                @Override
+                public SortedSetDocValues ordinals() {
+                    return values;
+                }
+
+                @Override
+                public String read(int docId) throws IOException {
+                    return leaf.read(docId);
+                }
+            };
+        }
+
+        @Override
+        DocIdSetIterator presence(LeafReaderContext ctx) throws IOException {
+            return DocValues.getSortedSet(ctx.reader(), fieldName);
+        }
+    }
+
+    /*
+     * Reads the first value of a numeric field from its sorted numeric doc values.
+     */
+    private static class NumericReader extends FieldValueReader {
+
+        private interface Formatter {
+            String format(long value);
+        }
+
+        private final Formatter formatter;
+
+        NumericReader(String fieldName, Formatter formatter) {
+            super(fieldName);
+            this.formatter = formatter;
+        }
+
+        @Override
+        Leaf getLeaf(LeafReaderContext ctx) throws IOException {
+            SortedNumericDocValues values = DocValues.getSortedNumeric(ctx.reader(), fieldName);
+            return docId -> {
+                if (values.advanceExact(docId) == false) {
+                    return "";
+                }
+                return formatter.format(values.nextValue());
+            };
+        }
+
+        @Override
+        DocIdSetIterator presence(LeafReaderContext ctx) throws IOException {
+            return DocValues.getSortedNumeric(ctx.reader(), fieldName);
+        }
+    }
+    /*
+     * Reads the first value of a date field from its sorted numeric doc values, either as a day or as a
+     * yyyy-MM-dd string.
+     */
+    private static class DateReader extends FieldValueReader {
+
+        private final long unitsPerDay;
+
+        DateReader(String fieldName, long unitsPerDay) {
+            super(fieldName);
+            this.unitsPerDay = unitsPerDay;
+        }
+
+        @Override
+        Leaf getLeaf(LeafReaderContext ctx) throws IOException {
+            SortedNumericDocValues values = DocValues.getSortedNumeric(ctx.reader(), fieldName);
+            return new DateLeaf() {
+                @Override
+                public long readEpochDay(int docId) throws IOException {
+                    if (values.advanceExact(docId) == false) {
+                        return MISSING_DAY;
+                    }
+                    return Math.floorDiv(values.nextValue(), unitsPerDay);
+                }
+
+                @Override
+                public String read(int docId) throws IOException {
+                    long epochDay = readEpochDay(docId);
+                    return epochDay == MISSING_DAY ? "" : LocalDate.ofEpochDay(epochDay).toString();
+                }
+            };
+        }
+
+        @Override
+        DocIdSetIterator presence(LeafReaderContext ctx) throws IOException {
+            return DocValues.getSortedNumeric(ctx.reader(), fieldName);
+        }
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.intrahealth.elasticsearch.plugin.similarity.ScoreCache;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedBoundedEditDistance;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedDateMatcher;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedMatcher;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService.PreparedShingleHashMatcher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.time.LocalDate;
+
+/**
+ * Matches the value of a field against a prepared query value for the documents of a segment. Dates read from doc
+ * values are handed to date matchers as days so that they are never formatted or parsed, and keyword fields read as
+ * ordinals are matched once per distinct value. Shingle matchers compare the hashed shingle profiles indexed by the
+ * <code>similarity_prepare</code> ingest processor when there are some. A matcher with several alternative query
+ * values keeps the best score of the alternatives.
+ */
+abstract class LeafFieldMatcher {
+
+    /*
+     * Matching by ordinal only pays off when values repeat, so segments with more distinct values than half their
+     * documents are matched value by value. This also bounds the scores kept by ordinal.
+     */
+    private static final int DOCS_PER_ORDINAL = 2;
+
+    /*
+     * The number of distinct values matched one by one before the terms within the limit of a bounded edit distance
+     * are looked up with an automaton. Searches that only score a few documents per segment, such as rescoring the
+     * top hits, never pay for the automaton.
+     */
+    private static final int INTERSECT_AFTER = 64;
+
+    /**
+     * Read the value of the field for a document. Documents must be visited in increasing doc id order.
+     *
+     * @param docId the segment relative id of the document.
+     *
+     * @return false if the document value is empty.
+     */
+    abstract boolean advance(int docId);
+
+    /**
+     * @return the match score of the value read by the last call to {@link #advance(int)}.
+     */
+    abstract double score();
+
+    /**
+     * @return the value read by the last call to {@link #advance(int)}, as the matcher compares it.
+     */
+    abstract String value();
+
+    /**
+     * @return the match score of the value read by the last call to {@link #advance(int)} if it is known without
+     * running the matcher, NaN otherwise.
+     */
+    double quickScore() {
+        return Double.NaN;
+    }
+
+    /**
+     * @param values          the values of the field in the segment.
+     * @param matcher         the matcher prepared for the query value.
+     * @param exactValue      the query value, documents with exactly this value score <code>exactScore</code>
+     *                        without running the matcher. May be null.
+     * @param exactScore      the score of an exact match.
+     * @param normalizedTerms whether the indexed terms are known to be trimmed and lower cased already, which allows
+     *                        finding the terms within the threshold of an edit distance with an automaton.
+     * @param shingles        the hashed shingle profiles of the values, shared by the alternative query values of the
+     *                        matcher, or null if the field has none.
+     * @param maxDoc          the number of documents of the segment.
+     * @param breaker         the circuit breaker the scores kept by ordinal are accounted in, may be null.
+     */
+    static LeafFieldMatcher create(FieldValueReader.Leaf values, PreparedMatcher matcher, String exactValue,
+                                   double exactScore, boolean normalizedTerms, ShingleProfiles shingles, int maxDoc,
+                                   CircuitBreaker breaker) throws IOException {
+        if (values instanceof FieldValueReader.DateLeaf && matcher instanceof PreparedDateMatcher) {
+            return new DateFieldMatcher((FieldValueReader.DateLeaf) values, (PreparedDateMatcher) matcher);
+        }
+        if (values instanceof FieldValueReader.OrdinalLeaf) {
+            SortedSetDocValues ordinals = ((FieldValueReader.OrdinalLeaf) values).ordinals();
+            if (ordinals.getValueCount() <= maxDoc / DOCS_PER_ORDINAL) {
+                PreparedBoundedEditDistance automatonMatcher = null;
+                if (normalizedTerms && matcher instanceof PreparedBoundedEditDistance) {
+                    automatonMatcher = (PreparedBoundedEditDistance) matcher;
+                }
+                return new OrdinalFieldMatcher(ordinals, ((FieldValueReader.OrdinalLeaf) values).fallback(), matcher,
+                        exactValue, exactScore, automatonMatcher, new OrdinalScores(breaker));
+            }
+        }
+        if (shingles != null && matcher instanceof PreparedShingleHashMatcher) {
+            return new ShingleHashFieldMatcher(values, (PreparedShingleHashMatcher) matcher, exactValue, exactScore,
+                    shingles);
+        }
+        return new StringFieldMatcher(values, matcher, exactValue, exactScore);
+    }
+
+    /**
+     * @param alternatives the matchers of the alternative query values, which read the same document values.
+     * @param distance     whether the matcher is a distance, of which the smallest score is the best.
+     * @param bestScore    the score no alternative can improve on, NaN if there is none.
+     *
+     * @return a matcher keeping the best score of the alternatives, or the only alternative.
+     */
+    static LeafFieldMatcher bestOf(LeafFieldMatcher[] alternatives, boolean distance, double bestScore) {
+        if (alternatives.length == 1) {
+            return alternatives[0];
+        }
+        return new BestOfFieldMatcher(alternatives, distance, bestScore);
+    }
+
+    /*
+     * Matches the value of a document against each alternative query value in turn, and stops at the first that
+     * gives the best possible score such as an exact match. Scores known without running a matcher are checked
+     * before any matcher is run.
+     */
+    private static class BestOfFieldMatcher extends LeafFieldMatcher {
+
+        private final LeafFieldMatcher[] alternatives;
+        private final boolean distance;
+        private final double bestScore;
+        /* the quick scores of the alternatives for the current document, kept for scoring it */
+        private final double[] quickScores;
+
+        BestOfFieldMatcher(LeafFieldMatcher[] alternatives, boolean distance, double bestScore) {
+            this.alternatives = alternatives;
+            this.distance = distance;
+            this.bestScore = bestScore;
+            this.quickScores = new double[alternatives.length];
+        }
+
+        @Override
+        boolean advance(int docId) {
+            boolean present = false;
+            for (LeafFieldMatcher alternative : alternatives) {
+                present = alternative.advance(docId);
+            }
+            return present;
+        }
+
+        @Override
+        String value() {
+            return alternatives[0].value();
+        }
+
+        @Override
+        double score() {
+            double best = quickScore();
+            if (Double.isNaN(best) == false) {
+                return best;
+            }
+            for (int i = 0; i < alternatives.length; i++) {
+                double score = Double.isNaN(quickScores[i]) ? alternatives[i].score() : quickScores[i];
+                if (score == bestScore) {
+                    return score;
+                }
+                best = better(best, score);
+            }
+            return best;
+        }
+
+        @Override
+        double quickScore() {
+            double best = Double.NaN;
+            boolean known = true;
+            for (int i = 0; i < alternatives.length; i++) {
+                double score = alternatives[i].quickScore();
+                quickScores[i] = score;
+                if (Double.isNaN(score)) {
+                    known = false;
+                } else if (score == bestScore) {
+                    return score;
+                } else {
+                    best = better(best, score);
+                }
+            }
+            return known ? best : Double.NaN;
+        }
+
+        private double better(double best, double score) {
+            if (Double.isNaN(best)) {
+                return score;
+            }
+            return distance ? Math.min(best, score) : Math.max(best, score);
+        }
+    }
+
+    private static class StringFieldMatcher extends LeafFieldMatcher {
+
+        private final FieldValueReader.Leaf values;
+        private final PreparedMatcher matcher;
+        private final String exactValue;
+        private final double exactScore;
+        String value;
+        int docId;
+
+        StringFieldMatcher(FieldValueReader.Leaf values, PreparedMatcher matcher, String exactValue, double exactScore) {
+            this.values = values;
+            this.matcher = matcher;
+            this.exactValue = exactValue;
+            this.exactScore = exactScore;
+        }
+
+        @Override
+        boolean advance(int docId) {
+            this.docId = docId;
+            try {
+                value = values.read(docId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return value.trim().isEmpty() == false;
+        }
+
+        @Override
+        String value() {
+            return value;
+        }
+
+        @Override
+        double score() {
+            if (value.equals(exactValue)) {
+                return exactScore;
+            }
+            return matcher.score(value);
+        }
+
+        @Override
+        double quickScore() {
+            if (value.equals(exactValue)) {
+                return exactScore;
+            }
+            return matcher.quickScore(value);
+        }
+    }
+
+    /**
+     * The hashed shingle profiles of the documents of a segment. The profile of a document is read once however many
+     * alternative query values it is matched against. Documents must be read in increasing doc id order.
+     */
+    static final class ShingleProfiles {
+
+        private final SortedNumericDocValues values;
+        private int docId = -1;
+        private boolean present;
+        private long[] hashes = new long[16];
+        private int length;
+
+        ShingleProfiles(SortedNumericDocValues values) {
+            this.values = values;
+        }
+
+        /**
+         * @return false if the document has no profile, because it was indexed without the ingest processor or is
+         * too short to have shingles.
+         */
+        boolean read(int docId) throws IOException {
+            if (docId != this.docId) {
+                this.docId = docId;
+                present = values.advanceExact(docId);
+                length = 0;
+                if (present) {
+                    length = values.docValueCount();
+                    hashes = ArrayUtil.grow(hashes, length);
+                    for (int i = 0; i < length; i++) {
+                        hashes[i] = values.nextValue();
+                    }
+                }
+            }
+            return present;
+        }
+    }
+
+    /*
+     * Compares the hashed shingle profile of the document instead of building one from its value. The profile is
+     * only read once the exact match check is done.
+     */
+    private static class ShingleHashFieldMatcher extends StringFieldMatcher {
+
+        private final PreparedShingleHashMatcher matcher;
+        private final ShingleProfiles shingles;
+
+        ShingleHashFieldMatcher(FieldValueReader.Leaf values, PreparedShingleHashMatcher matcher, String exactValue,
+                                double exactScore, ShingleProfiles shingles) {
+            super(values, matcher, exactValue, exactScore);
+            this.matcher = matcher;
+            this.shingles = shingles;
+        }
+
+        @Override
+        double score() {
+            double quickScore = super.quickScore();
+            if (Double.isNaN(quickScore) == false) {
+                return quickScore;
+            }
+            try {
+                if (shingles.read(docId) == false) {
+                    return matcher.score(value);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return matcher.scoreShingles(value, shingles.hashes, shingles.length);
+        }
+    }
+
+    private static class DateFieldMatcher extends LeafFieldMatcher {
+
+        private final FieldValueReader.DateLeaf values;
+        private final PreparedDateMatcher matcher;
+        private long epochDay;
+
+        DateFieldMatcher(FieldValueReader.DateLeaf values, PreparedDateMatcher matcher) {
+            this.values = values;
+            this.matcher = matcher;
+        }
+
+        @Override
+        boolean advance(int docId) {
+            try {
+                epochDay = values.readEpochDay(docId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return epochDay != FieldValueReader.MISSING_DAY;
+        }
+
+        @Override
+        String value() {
+            return epochDay == FieldValueReader.MISSING_DAY ? "" : LocalDate.ofEpochDay(epochDay).toString();
+        }
+
+        @Override
+        double score() {
+            return matcher.scoreDate(epochDay);
+        }
+    }
+
+    /*
+     * Matches each distinct value of a keyword field at most once per segment and keeps the scores by ordinal. The
+     * documents without ordinals are matched value by value when there is a fallback reader for them.
+     */
+    private static class OrdinalFieldMatcher extends LeafFieldMatcher {
+
+        private final SortedSetDocValues values;
+        private final FieldValueReader.Leaf fallback;
+        private final PreparedMatcher matcher;
+        private final String exactValue;
+        private final double exactScore;
+        private final OrdinalScores scores;
+        private int ord;
+        /* the slot of the current ordinal in the scores */
+        private int slot;
+        /* the value of the current document read by the fallback reader, null if it has an ordinal */
+        private String fallbackValue;
+        /* the matcher to intersect the terms with once enough values were matched one by one, null if none */
+        private PreparedBoundedEditDistance automatonMatcher;
+        private int matched;
+        /* the score of the ordinals the automaton did not accept once the terms were intersected, NaN before */
+        private double rejectedScore = Double.NaN;
+
+        OrdinalFieldMatcher(SortedSetDocValues values, FieldValueReader.Leaf fallback, PreparedMatcher matcher,
+                            String exactValue, double exactScore, PreparedBoundedEditDistance automatonMatcher,
+                            OrdinalScores scores) {
+            this.values = values;
+            this.fallback = fallback;
+            this.matcher = matcher;
+            this.exactValue = exactValue;
+            this.exactScore = exactScore;
+            this.automatonMatcher = automatonMatcher;
+            this.scores = scores;
+        }
+
+        /*
+         * Score every ordinal at once: the terms accepted by the Levenshtein automaton of the query are matched
+         * exactly and all the other terms get <code>limit + 1</code>. Only sound when the terms are normalized already, like
+         * the values the matcher compares.
+         */
+        void intersect(PreparedBoundedEditDistance matcher) throws IOException {
+            int limit = matcher.limit();
+            if (limit < 0 || limit > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+                return;
+            }
+            Automaton automaton = new LevenshteinAutomata(matcher.query(), matcher.transpositions()).toAutomaton(limit);
+            TermsEnum terms = values.intersect(new CompiledAutomaton(automaton));
+            for (BytesRef term = terms.next(); term != null; term = terms.next()) {
+                int termOrd = (int) terms.ord();
+                int termSlot = scores.add(termOrd, isBlank(term));
+                if (scores.state(termSlot) == OrdinalScores.PRESENT) {
+                    scores.setScore(termSlot, match(term.utf8ToString()));
+                }
+            }
+            rejectedScore = limit + 1;
+        }
+
+        @Override
+        boolean advance(int docId) {
+            try {
+                fallbackValue = null;
+                if (values.advanceExact(docId) == false) {
+                    if (fallback == null) {
+                        return false;
+                    }
+                    fallbackValue = fallback.read(docId);
+                    return fallbackValue.trim().isEmpty() == false;
+                }
+                ord = (int) values.nextOrd();
+                slot = scores.find(ord);
+                if (scores.state(slot) == OrdinalScores.FREE) {
+                    slot = scores.add(ord, isBlank(values.lookupOrd(ord)));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return scores.state(slot) != OrdinalScores.BLANK;
+        }
+
+        @Override
+        String value() {
+            if (fallbackValue != null) {
+                return fallbackValue;
+            }
+            try {
+                return values.lookupOrd(ord).utf8ToString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        double score() {
+            if (fallbackValue != null) {
+                return match(fallbackValue);
+            }
+            if (scores.state(slot) == OrdinalScores.SCORED) {
+                return scores.score(slot);
+            }
+            try {
+                if (automatonMatcher != null && ++matched > INTERSECT_AFTER) {
+                    PreparedBoundedEditDistance automatonMatcher = this.automatonMatcher;
+                    this.automatonMatcher = null;
+                    intersect(automatonMatcher);
+                    // the scores may have grown
+                    slot = scores.find(ord);
+                    if (scores.state(slot) == OrdinalScores.SCORED) {
+                        return scores.score(slot);
+                    }
+                }
+                if (Double.isNaN(rejectedScore) == false) {
+                    return rejectedScore;
+                }
+                double score = match(values.lookupOrd(ord).utf8ToString());
+                scores.setScore(slot, score);
+                return score;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        double quickScore() {
+            if (fallbackValue != null) {
+                return fallbackValue.equals(exactValue) ? exactScore : matcher.quickScore(fallbackValue);
+            }
+            return scores.state(slot) == OrdinalScores.SCORED ? scores.score(slot) : rejectedScore;
+        }
+
+        private double match(String value) {
+            return value.equals(exactValue) ? exactScore : matcher.score(value);
+        }
+
+        /*
+         * A term is empty once trimmed if it only has characters up to a space, which are all single bytes in UTF-8.
+         */
+        private static boolean isBlank(BytesRef term) {
+            for (int i = term.offset; i < term.offset + term.length; i++) {
+                if ((term.bytes[i] & 0xFF) > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * The ordinals of a segment seen so far, whether they are blank and their score once it is known, in an open
+     * addressing hash table. The memory grows with the number of distinct values actually read rather than with the
+     * number of values of the segment, so rescoring a window of hits only pays for the values of the window. It is
+     * accounted in the circuit breaker of the plugin, and since searches do not say when they are done with a
+     * segment, released once the table is garbage collected.
+     */
+    static final class OrdinalScores {
+
+        static final byte FREE = 0;
+        static final byte BLANK = 1;
+        static final byte PRESENT = 2;
+        static final byte SCORED = 3;
+
+        private static final Cleaner CLEANER = Cleaner.create();
+        private static final int INITIAL_CAPACITY = 16;
+        private static final long BYTES_PER_SLOT = Integer.BYTES + Byte.BYTES + Double.BYTES;
+
+        private final Charge charge;
+        /* the ordinals plus one, 0 for a free slot */
+        private int[] keys;
+        private byte[] states;
+        private double[] scores;
+        private int mask;
+        private int size;
+
+        OrdinalScores(CircuitBreaker breaker) {
+            this.charge = breaker == null ? null : new Charge(breaker);
+        }
+
+        /**
+         * @return the slot of the ordinal, or of the free slot it would be added to.
+         */
+        int find(int ord) {
+            if (keys == null) {
+                return -1;
+            }
+            int slot = hash(ord) & mask;
+            while (keys[slot] != 0 && keys[slot] != ord + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Add an ordinal whose score is not known yet, unless it was added already.
+         *
+         * @return the slot of the ordinal, which stays the same until another ordinal is added.
+         */
+        int add(int ord, boolean blank) {
+            int slot = find(ord);
+            if (slot >= 0 && keys[slot] != 0) {
+                return slot;
+            }
+            if (keys == null || (size + 1) * 2 > keys.length) {
+                grow();
+                slot = find(ord);
+            }
+            keys[slot] = ord + 1;
+            states[slot] = blank ? BLANK : PRESENT;
+            size++;
+            return slot;
+        }
+
+        byte state(int slot) {
+            return slot < 0 ? FREE : states[slot];
+        }
+
+        double score(int slot) {
+            return scores[slot];
+        }
+
+        void setScore(int slot, double score) {
+            scores[slot] = score;
+            states[slot] = SCORED;
+        }
+
+        private void grow() {
+            int capacity = keys == null ? INITIAL_CAPACITY : keys.length * 2;
+            if (charge != null) {
+                charge.add(capacity * BYTES_PER_SLOT - (keys == null ? 0 : keys.length * BYTES_PER_SLOT), this);
+            }
+            int[] oldKeys = keys;
+            byte[] oldStates = states;
+            double[] oldScores = scores;
+            keys = new int[capacity];
+            states = new byte[capacity];
+            scores = new double[capacity];
+            mask = capacity - 1;
+            if (oldKeys != null) {
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != 0) {
+                        int slot = find(oldKeys[i] - 1);
+                        keys[slot] = oldKeys[i];
+                        states[slot] = oldStates[i];
+                        scores[slot] = oldScores[i];
+                    }
+                }
+            }
+        }
+
+        private static int hash(int ord) {
+            int hash = ord * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        /*
+         * The bytes charged to the breaker, released by the cleaner. It must not reference the table it is
+         * registered for.
+         */
+        private static final class Charge implements Runnable {
+
+            private final CircuitBreaker breaker;
+            private volatile long bytes;
+            private boolean registered;
+
+            Charge(CircuitBreaker breaker) {
+                this.breaker = breaker;
+            }
+
+            void add(long bytes, OrdinalScores scores) {
+                breaker.addEstimateBytesAndMaybeBreak(bytes, ScoreCache.BREAKER_NAME + "_ordinals");
+                this.bytes += bytes;
+                if (registered == false) {
+                    CLEANER.register(scores, this);
+                    registered = true;
+                }
+            }
+
+            @Override
+            public void run() {
+                breaker.addWithoutBreaking(-bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.intrahealth.elasticsearch.plugin.similarity.script.ExecutionPlan.ScoreMode;
+import org.intrahealth.elasticsearch.plugin.similarity.script.FieldValueReader.FieldAccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The validated and parsed form of a match configuration: the score mode with its base score, how the fields are read
+ * and the matchers with their weights, m/u values, thresholds and null handling. A profile registered with
+ * {@link MatchProfiles} is parsed once and then only has its values filled in by each query.
+ */
+final class MatchProfile {
+
+    final ScoreMode scoreMode;
+    final double baseScore;
+    final FieldAccess fieldAccess;
+    final List<MatcherModel> matchers;
+
+    private MatchProfile(ScoreMode scoreMode, double baseScore, FieldAccess fieldAccess, List<MatcherModel> matchers) {
+        this.scoreMode = scoreMode;
+        this.baseScore = baseScore;
+        this.fieldAccess = fieldAccess;
+        this.matchers = Collections.unmodifiableList(matchers);
+    }
+
+    /**
+     * Validate and parse a match configuration.
+     *
+     * @param params        the script parameters or the definition of a registered profile.
+     * @param valueRequired false for registered profiles, whose matchers get their values from each query.
+     *
+     * @return the parsed profile.
+     */
+    static MatchProfile parse(Map<String, Object> params, boolean valueRequired) {
+        if (params.containsKey("matchers") == false) {
+            throw new IllegalArgumentException("Missing parameter [matchers]");
+        }
+        if (params.containsKey("score_mode") == false) {
+            throw new IllegalArgumentException("Missing parameter [score_mode]");
+        }
+        ScoreMode scoreMode = ScoreMode.fromString(String.valueOf(params.get("score_mode")));
+        double baseScore = 0.0;
+        if (scoreMode == ScoreMode.FELLEGI_SUNTER) {
+            if (params.containsKey("base_score") == false) {
+                throw new IllegalArgumentException("Missing parameter [base_score] for fellegi-sunter (because results can't be negative)");
+            }
+            baseScore = Double.parseDouble(String.valueOf(params.get("base_score")));
+        }
+        FieldAccess fieldAccess = FieldAccess.SOURCE;
+        if (params.containsKey("field_access")) {
+            fieldAccess = FieldAccess.fromString(String.valueOf(params.get("field_access")));
+        }
+        List<MatcherModel> matchers = MatcherModelParser.parseMatcherModels(params, valueRequired);
+        return new MatchProfile(scoreMode, baseScore, fieldAccess, matchers);
+    }
+
+    /**
+     * Resolve the match configuration of a search. The parameters either hold the whole configuration or reference a
+     * registered profile by name with the query values keyed by field.
+     *
+     * @param params   the parameters of the search.
+     * @param profiles the match profiles registered on the node.
+     *
+     * @return the match configuration with the values of the search.
+     */
+    @SuppressWarnings("unchecked")
+    static MatchProfile resolve(Map<String, Object> params, MatchProfiles profiles) {
+        if (params.containsKey("profile") == false) {
+            return parse(params, true);
+        }
+        if (params.get("values") instanceof Map == false) {
+            throw new IllegalArgumentException("Missing parameter [values] for profile [" + params.get("profile") + "]");
+        }
+        MatchProfile profile = profiles.get(String.valueOf(params.get("profile")));
+        return new MatchProfile(profile.scoreMode, profile.baseScore, profile.fieldAccess,
+                profile.bind((Map<String, Object>) params.get("values")));
+    }
+
+    /**
+     * Fill in the query values of the matchers. A field without a value is matched as empty so that its null
+     * handling applies.
+     *
+     * @param values the query values by field name.
+     *
+     * @return the matchers of the profile with the values of the query.
+     */
+    List<MatcherModel> bind(Map<String, Object> values) {
+        List<MatcherModel> bound = new ArrayList<>(matchers.size());
+        for (MatcherModel matcher : matchers) {
+            Object value = values.get(matcher.fieldName);
+            bound.add(matcher.withValue(value == null ? "" : value));
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The match profiles registered on the node through the dynamic <code>similarity.profiles.&lt;name&gt;</code>
+ * cluster settings. Each setting holds the JSON definition of a profile, which is parsed once when the setting is
+ * applied. Queries then reference the profile by name and only send their values.
+ */
+final class MatchProfiles {
+
+    static final Setting.AffixSetting<String> PROFILES_SETTING = Setting.prefixKeySetting("similarity.profiles.",
+            key -> Setting.simpleString(key, definition -> {
+                if (definition.isEmpty() == false) {
+                    parse(definition);
+                }
+            }, Property.Dynamic, Property.NodeScope));
+
+    private final MatcherService matcherService;
+
+    /*
+     * Replaced as a whole whenever the settings change, so searches never see a partially updated set of profiles.
+     */
+    private volatile Map<String, Entry> profiles = Collections.emptyMap();
+
+    MatchProfiles(MatcherService matcherService) {
+        this.matcherService = matcherService;
+    }
+
+    /**
+     * @return the profile registered under the given name.
+     */
+    MatchProfile get(String name) {
+        Entry entry = profiles.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown match profile [" + name + "]");
+        }
+        return entry.profile;
+    }
+
+    /**
+     * Check that a profile definition parses and only uses matchers that exist on this node.
+     */
+    void validate(String name, String definition) {
+        for (MatcherModel matcher : parse(definition).matchers) {
+            matcherService.exactScore(matcher.matcherName);
+        }
+    }
+
+    /**
+     * Merge changed profiles into the registered ones. Profiles whose definition did not change are kept as they are,
+     * and profiles whose definition is now empty are removed. Cluster settings updates only pass the profiles that
+     * changed.
+     *
+     * @param definitions the JSON definitions of the changed profiles by name.
+     */
+    synchronized void update(Map<String, String> definitions) {
+        Map<String, Entry> updated = new HashMap<>(profiles);
+        for (Map.Entry<String, String> definition : definitions.entrySet()) {
+            if (definition.getValue() == null || definition.getValue().isEmpty()) {
+                updated.remove(definition.getKey());
+                continue;
+            }
+            Entry entry = profiles.get(definition.getKey());
+            if (entry == null || entry.definition.equals(definition.getValue()) == false) {
+                entry = new Entry(definition.getValue(), parse(definition.getValue()));
+            }
+            updated.put(definition.getKey(), entry);
+        }
+        profiles = Collections.unmodifiableMap(updated);
+    }
+
+    private static MatchProfile parse(String definition) {
+        Map<String, Object> params = XContentHelper.convertToMap(JsonXContent.jsonXContent, definition, false);
+        return MatchProfile.parse(params, false);
+    }
+
+    private static final class Entry {
+        final String definition;
+        final MatchProfile profile;
+
+        Entry(String definition, MatchProfile profile) {
+            this.definition = definition;
+            this.profile = profile;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Encapsulates a field with its value, preferred matcher and the high and low values to be used for scoring.
+ */
+final class MatcherModel {
+
+    /**
+     * The name of the field to be matched.
+     */
+    final String fieldName;
+
+    /**
+     * The alternative values of the field to be matched, the best score against any of them is the score of the
+     * matcher. Holds a single empty value when the query value is empty.
+     */
+    final String[] values;
+
+    /**
+     * The name of the matcher to use for matching.
+     */
+    final String matcherName;
+
+    /**
+     * The score to assign a perfect match. Should be high, non-zero and between 0 and 1.
+     */
+    final double high;
+
+    /**
+     * The score to assign a perfect match. Should be low, non-zero and between 0 and 1.
+     */
+    final double low;
+
+    /**
+     * The match weight for Fellegi-Sunter linkage. Based on the mValue and uValue for the field.
+     */
+    final double match;
+
+    /**
+     * The unmatch weight for Fellegi-Sunter linkage. Based on the mValue and uValue for the field.
+     */
+    final double unmatch;
+
+    /**
+     * The threshold to determine a match or not based on the string distance or similarity.
+     */
+    final double threshold;
+
+    /**
+     * The weight for the field when using sum or multiple score_modes.
+     */
+    final double weight;
+
+    /**
+     * The name of the matcher to use for matching.
+     */
+    final String nullHandling;
+
+    /**
+     * The name of the matcher to use for matching.
+     */
+    final String nullHandlingBoth;
+
+    /**
+     * Whether the scores of the matcher are kept in the node level score cache.
+     */
+    final boolean scoreCache;
+
+    /**
+     * Whether the indexed terms of the field are already trimmed and lower cased.
+     */
+    final boolean normalizedTerms;
+
+    /**
+     * The field the q-grams of the values are indexed in, for blocking. Null if there is none.
+     */
+    final String qgramField;
+
+    /**
+     * The length of the q-grams indexed in {@link #qgramField}.
+     */
+    final int qgramSize;
+
+    /**
+     * Constructs a new instance of a MatcherModel.
+     */
+    MatcherModel(String fieldName, Object value, String matcherName, double high, double low, 
+            double mValue, double uValue, double threshold, double weight, 
+            String nullHandling, String nullHandlingBoth, boolean scoreCache, boolean normalizedTerms,
+            String qgramField, int qgramSize) {
+        this.fieldName = fieldName;
+        this.values = alternatives(value);
+        this.matcherName = matcherName;
+        this.high = high;
+        this.low = low;
+        this.match = java.lang.Math.log10( mValue / uValue );
+        this.unmatch = java.lang.Math.log10( (1 - mValue) / (1 - uValue) );
+        this.threshold = threshold;
+        this.weight = weight;
+        this.nullHandling = nullHandling;
+        this.nullHandlingBoth = nullHandlingBoth;
+        this.scoreCache = scoreCache;
+        this.normalizedTerms = normalizedTerms;
+        this.qgramField = qgramField;
+        this.qgramSize = qgramSize;
+    }
+
+    /*
+     * Copies a matcher model for a different value.
+     */
+    private MatcherModel(MatcherModel model, Object value) {
+        this.fieldName = model.fieldName;
+        this.values = alternatives(value);
+        this.matcherName = model.matcherName;
+        this.high = model.high;
+        this.low = model.low;
+        this.match = model.match;
+        this.unmatch = model.unmatch;
+        this.threshold = model.threshold;
+        this.weight = model.weight;
+        this.nullHandling = model.nullHandling;
+        this.nullHandlingBoth = model.nullHandlingBoth;
+        this.scoreCache = model.scoreCache;
+        this.normalizedTerms = model.normalizedTerms;
+        this.qgramField = model.qgramField;
+        this.qgramSize = model.qgramSize;
+    }
+
+    /**
+     * @return the same matcher configuration for another value of the field.
+     */
+    MatcherModel withValue(Object value) {
+        return new MatcherModel(this, value);
+    }
+
+    /**
+     * Prepares the matcher for each value of the field so that the query side of the match is only computed once
+     * per search instead of once per document. When the score is only compared against the threshold the
+     * matcher is allowed to stop as soon as the outcome of that comparison is known.
+     *
+     * @return the prepared matchers, in the order of {@link #values}.
+     */
+    MatcherService.PreparedMatcher[] prepare(MatcherService matcherService, boolean thresholded) {
+        MatcherService.PreparedMatcher[] matchers = new MatcherService.PreparedMatcher[values.length];
+        for (int i = 0; i < values.length; i++) {
+            matchers[i] = prepare(matcherService, thresholded, values[i]);
+        }
+        return matchers;
+    }
+
+    private MatcherService.PreparedMatcher prepare(MatcherService matcherService, boolean thresholded, String value) {
+        if (thresholded) {
+            MatcherService.PreparedMatcher matcher = matcherService.prepare(matcherName, value, threshold);
+            return scoreCache ? matcherService.cached(matcher, matcherName + "@" + threshold, value) : matcher;
+        }
+        MatcherService.PreparedMatcher matcher = matcherService.prepare(matcherName, value);
+        return scoreCache ? matcherService.cached(matcher, matcherName, value) : matcher;
+    }
+
+    /*
+     * The distinct non empty values of a list of values, or a single empty value if there are none. A single value is
+     * kept as it is, a null value included.
+     */
+    private static String[] alternatives(Object value) {
+        if (value instanceof Collection == false) {
+            return new String[] { String.valueOf(value) };
+        }
+        Set<String> alternatives = new LinkedHashSet<>();
+        for (Object alternative : (Collection<?>) value) {
+            if (alternative != null && String.valueOf(alternative).trim().isEmpty() == false) {
+                alternatives.add(String.valueOf(alternative));
+            }
+        }
+        return alternatives.isEmpty() ? new String[] { "" } : alternatives.toArray(new String[0]);
+    }
+
+}
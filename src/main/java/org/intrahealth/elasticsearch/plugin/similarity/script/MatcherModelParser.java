@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts each matcher entry from the script to a {@link MatcherModel}.
+ */
+final class MatcherModelParser {
+
+    private static String FIELD = "field";
+    private static String VALUE = "value";
+    private static String MATCHER = "matcher";
+    /* For Bayes score_mode */
+    private static String HIGH = "high";
+    private static String LOW = "low";
+    /* For Fellegi-Sunter score_mode */
+    private static String MVALUE = "m_value";
+    private static String UVALUE = "u_value";
+    private static String THRESHOLD = "threshold";
+    private static String WEIGHT = "weight";
+    /* For null value handling */
+    private static String NULL_HANDLING = "null_handling";
+    private static String NULL_HANDLING_BOTH = "null_handling_both";
+    /* For the node level score cache */
+    private static String SCORE_CACHE = "score_cache";
+    /* For keyword fields read as ordinals */
+    private static String NORMALIZED_TERMS = "normalized_terms";
+    /* For the blocking query */
+    private static String QGRAM_FIELD = "qgram_field";
+    private static String QGRAM_SIZE = "qgram_size";
+
+    public static List<MatcherModel> parseMatcherModels(Map<String, Object> params) {
+        return parseMatcherModels(params, true);
+    }
+
+    /**
+     * @param valueRequired false for the matchers of a match profile, which get their values from each query.
+     */
+    @SuppressWarnings("unchecked")
+    static List<MatcherModel> parseMatcherModels(Map<String, Object> params, boolean valueRequired) {
+        final String score_mode = String.valueOf(params.get("score_mode"));
+        final boolean scoreCacheDefault = Boolean.parseBoolean(String.valueOf(params.get(SCORE_CACHE)));
+        List<MatcherModel> matcherModels = new ArrayList<>();
+        List<Map<String, Object>> script = (List<Map<String, Object>>) params.get("matchers");
+        script.forEach(entry -> {
+            checkMatcherConfiguration(score_mode, entry, valueRequired);
+            String fieldName = String.valueOf(entry.get(FIELD));
+            Object value = valueRequired ? entry.get(VALUE) : "";
+            String matcherName = String.valueOf(entry.get(MATCHER));
+            String nullHandling = "off";
+            String nullHandlingBoth = "";
+            if ( entry.containsKey(NULL_HANDLING) ) {
+                nullHandling = String.valueOf(entry.get(NULL_HANDLING));
+                if ( entry.containsKey(NULL_HANDLING_BOTH) ) {
+                    nullHandlingBoth = String.valueOf(entry.get(NULL_HANDLING_BOTH));
+                }
+            }
+            boolean scoreCache = scoreCacheDefault;
+            if ( entry.containsKey(SCORE_CACHE) ) {
+                scoreCache = Boolean.parseBoolean(String.valueOf(entry.get(SCORE_CACHE)));
+            }
+            boolean normalizedTerms = Boolean.parseBoolean(String.valueOf(entry.get(NORMALIZED_TERMS)));
+            String qgramField = entry.containsKey(QGRAM_FIELD) ? String.valueOf(entry.get(QGRAM_FIELD)) : null;
+            int qgramSize = 3;
+            if ( entry.containsKey(QGRAM_SIZE) ) {
+                qgramSize = Integer.parseInt( String.valueOf( entry.get(QGRAM_SIZE) ) );
+                if ( qgramSize < 1 ) {
+                    throw new IllegalArgumentException("Invalid matcher configuration. [" + QGRAM_SIZE + "] must be at least 1.");
+                }
+            }
+            double high, low, mValue, uValue, threshold;
+            double weight = 1.0;
+            if ( score_mode.equals("fellegi-sunter" ) ) {
+                mValue = Double.parseDouble( String.valueOf( entry.get(MVALUE) ) );
+                uValue = Double.parseDouble( String.valueOf( entry.get(UVALUE) ) );
+                threshold = Double.parseDouble( String.valueOf( entry.get(THRESHOLD) ) );
+                high = low = 0.0;
+            } else if ( score_mode.equals("bayes") ) { 
+                high = Double.parseDouble( String.valueOf( entry.get(HIGH) ) );
+                low = Double.parseDouble( String.valueOf( entry.get(LOW) ) );
+                mValue = uValue = threshold = 0.0;
+            } else { // multiply and sum have the weight option
+                high = low = mValue = uValue = threshold = 0.0;
+                if ( entry.containsKey(WEIGHT) ) {
+                    weight = Double.parseDouble( String.valueOf( entry.get(WEIGHT) ) );
+                }
+                if ( entry.containsKey(THRESHOLD) ) {
+                    threshold = Double.parseDouble( String.valueOf( entry.get(THRESHOLD) ) );
+                }
+            }
+            matcherModels.add(new MatcherModel(fieldName, value, matcherName, high, low, mValue, uValue, 
+                  threshold, weight, nullHandling, nullHandlingBoth, scoreCache, normalizedTerms, qgramField, qgramSize));
+        });
+        return matcherModels;
+    }
+
+    private static void checkMatcherConfiguration(String score_mode, Map<String, Object> entry, boolean valueRequired) {
+        if (!entry.containsKey(FIELD)) {
+            throw new IllegalArgumentException("Invalid matcher configuration. Missing: [" + FIELD + "] property.");
+        }
+        if (valueRequired && !entry.containsKey(VALUE)) {
+            throw new IllegalArgumentException("Invalid matcher configuration. Missing: [" + VALUE + "] property.");
+        }
+        if (!entry.containsKey(MATCHER)) {
+            throw new IllegalArgumentException("Invalid matcher configuration. Missing: [" + MATCHER + "] property.");
+        }
+        if ( score_mode.equals( "fellegi-sunter" ) ) {
+            if (!entry.containsKey(THRESHOLD)) {
+                throw new IllegalArgumentException("Invalid matcher configuration for fellegi-sunter. Missing: [" 
+                        + THRESHOLD + "] property.");
+            }
+            if (!entry.containsKey(MVALUE)) {
+                throw new IllegalArgumentException("Invalid matcher configuration for fellegi-sunter. Missing: [" 
+                        + MVALUE + "] property.");
+            }
+            if (!entry.containsKey(UVALUE)) {
+                throw new IllegalArgumentException("Invalid matcher configuration for fellegi-sunter. Missing: [" 
+                        + UVALUE + "] property.");
+            }
+        } else if ( score_mode.equals( "bayes" ) ) { 
+            if (!entry.containsKey(HIGH)) {
+                throw new IllegalArgumentException("Invalid matcher configuration for bayes. Missing: [" 
+                        + HIGH + "] property.");
+            }
+            if (!entry.containsKey(LOW)) {
+                throw new IllegalArgumentException("Invalid matcher configuration for bayes. Missing: [" 
+                        + LOW + "] property.");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.intrahealth.elasticsearch.plugin.similarity.MinHashSignature;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Finds the documents that share at least <code>minimum_bands</code> MinHash bands with a query value, in a field
+ * filled by the <code>similarity_minhash</code> ingest processor with the same shingle size, bands and rows.
+ */
+public class MinHashQueryBuilder extends AbstractQueryBuilder<MinHashQueryBuilder> {
+
+    public static final String NAME = "similarity_minhash";
+
+    private final String field;
+    private final String value;
+    private final int shingleSize;
+    private final int bands;
+    private final int rows;
+    private final int minimumBands;
+
+    MinHashQueryBuilder(String field, String value, int shingleSize, int bands, int rows, int minimumBands) {
+        this.field = Objects.requireNonNull(field);
+        this.value = Objects.requireNonNull(value);
+        this.shingleSize = shingleSize;
+        this.bands = bands;
+        this.rows = rows;
+        this.minimumBands = minimumBands;
+    }
+
+    MinHashQueryBuilder(StreamInput in) throws IOException {
+        super(in);
+        this.field = in.readString();
+        this.value = in.readString();
+        this.shingleSize = in.readVInt();
+        this.bands = in.readVInt();
+        this.rows = in.readVInt();
+        this.minimumBands = in.readVInt();
+    }
+
+    static MinHashQueryBuilder fromXContent(XContentParser parser) throws IOException {
+        Map<String, Object> params = new HashMap<>(parser.map());
+        if (params.get("field") == null || params.get("value") == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [field] and [value]");
+        }
+        MinHashQueryBuilder builder;
+        try {
+            builder = new MinHashQueryBuilder(
+                    String.valueOf(params.remove("field")),
+                    String.valueOf(params.remove("value")),
+                    intParam(params.remove("shingle_size"), 3),
+                    intParam(params.remove("bands"), 20),
+                    intParam(params.remove("rows"), 5),
+                    intParam(params.remove("minimum_bands"), 1));
+            // validates the shingle size, bands and rows
+            new MinHashSignature(builder.shingleSize, builder.bands, builder.rows);
+            if (builder.minimumBands < 1 || builder.minimumBands > builder.bands) {
+                throw new IllegalArgumentException("[minimum_bands] must be between 1 and the number of bands "
+                        + builder.bands + ", it is " + builder.minimumBands);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage(), e);
+        }
+        StringSimilarityQueryBuilder.parseBoostAndQueryName(parser, params, builder);
+        if (params.isEmpty() == false) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown parameters " + params.keySet());
+        }
+        return builder;
+    }
+
+    private static int intParam(Object value, int defaultValue) {
+        return value == null ? defaultValue : Integer.parseInt(String.valueOf(value));
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeString(value);
+        out.writeVInt(shingleSize);
+        out.writeVInt(bands);
+        out.writeVInt(rows);
+        out.writeVInt(minimumBands);
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field("field", field);
+        builder.field("value", value);
+        builder.field("shingle_size", shingleSize);
+        builder.field("bands", bands);
+        builder.field("rows", rows);
+        builder.field("minimum_bands", minimumBands);
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) {
+        MappedFieldType fieldType = context.fieldMapper(field);
+        if (fieldType == null) {
+            return new MatchNoDocsQuery("unmapped field [" + field + "]");
+        }
+        List<String> keys = new MinHashSignature(shingleSize, bands, rows).bandKeys(value);
+        if (keys.size() < minimumBands) {
+            return new MatchNoDocsQuery("[" + value + "] has fewer than " + minimumBands + " MinHash bands");
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String key : keys) {
+            builder.add(new TermQuery(new Term(fieldType.name(), key)), Occur.SHOULD);
+        }
+        builder.setMinimumNumberShouldMatch(minimumBands);
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    @Override
+    protected boolean doEquals(MinHashQueryBuilder other) {
+        return field.equals(other.field) && value.equals(other.value) && shingleSize == other.shingleSize
+                && bands == other.bands && rows == other.rows && minimumBands == other.minimumBands;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(field, value, shingleSize, bands, rows, minimumBands);
+    }
+}
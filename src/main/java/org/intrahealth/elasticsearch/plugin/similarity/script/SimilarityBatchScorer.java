@@ -0,0 +1,237 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.PriorityQueue;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.action.SimilarityBatchRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores many query records that share one match configuration against the documents of a shard in a single pass.
+ * The candidates of a record are the documents that share the value of at least one blocking field with it. Each
+ * segment is then visited once in doc id order: the fields of a candidate are read once, and the candidate is scored
+ * against every record it is a candidate of, keeping the top hits of each record. Once a record has enough hits its
+ * plan rejects the candidates that can not beat the worst of them before running the more expensive matchers.
+ */
+public final class SimilarityBatchScorer {
+
+    /*
+     * The number of doc id and record pairs gathered before they are scored, 8 MB of pairs. The pairs of a document
+     * are always gathered together, so a document that is a candidate of more records than that goes over.
+     */
+    private static final int MAX_PAIRS = 1 << 20;
+
+    private final MatcherService matcherService;
+    private final MatchProfiles profiles;
+
+    SimilarityBatchScorer(MatcherService matcherService, MatchProfiles profiles) {
+        this.matcherService = matcherService;
+        this.profiles = profiles;
+    }
+
+    /**
+     * @param match    the match configuration without values, or a reference to a registered profile. It may set a
+     *                 <code>min_score</code> for the hits.
+     * @param blocking the fields a candidate must share the value of with a record, at least one of them.
+     * @param records  the query values of each record by field name.
+     * @param size     the number of hits to keep per record.
+     * @param filter   the documents that may be hits, such as those of a filtered alias, null if any may be.
+     * @param context  the context of the shard.
+     *
+     * @return the hits of each record by decreasing score, with the doc ids of the reader of the shard.
+     */
+    public ScoreDoc[][] score(Map<String, Object> match, List<String> blocking, List<Map<String, Object>> records, int size,
+                              Query filter, QueryShardContext context) throws IOException {
+        MatchProfile profile = match.containsKey("profile") ? profiles.get(String.valueOf(match.get("profile")))
+                : MatchProfile.parse(match, false);
+        if (profile.fieldAccess == FieldValueReader.FieldAccess.ORDINALS) {
+            throw new IllegalArgumentException(SimilarityBatchRequest.ORDINALS_NOT_SUPPORTED);
+        }
+        double minScore = Double.NEGATIVE_INFINITY;
+        if (match.get("min_score") != null) {
+            minScore = Double.parseDouble(String.valueOf(match.get("min_score")));
+        }
+        ExecutionPlan[] plans = new ExecutionPlan[records.size()];
+        for (int r = 0; r < plans.length; r++) {
+            plans[r] = ExecutionPlan.compile(profile, records.get(r), minScore, matcherService, context.lookup());
+        }
+        List<Weight> keys = new ArrayList<>();
+        List<int[]> keyRecords = new ArrayList<>();
+        blockingKeys(blocking, records, context, keys, keyRecords);
+        IndexSearcher searcher = context.searcher();
+        Weight filterWeight = filter == null ? null
+                : searcher.createWeight(searcher.rewrite(filter), ScoreMode.COMPLETE_NO_SCORES, 1f);
+
+        TopHits[] hits = new TopHits[records.size()];
+        long[] pairs = new long[64];
+        for (LeafReaderContext ctx : keys.isEmpty() ? List.<LeafReaderContext>of() : context.getIndexReader().leaves()) {
+            Bits liveDocs = ctx.reader().getLiveDocs();
+            // the candidates come in doc id order, which is all the filter needs
+            Bits filterDocs = filterWeight == null ? null
+                    : Lucene.asSequentialAccessBits(ctx.reader().maxDoc(), filterWeight.scorerSupplier(ctx));
+            // the candidates of all the keys in doc id order
+            PriorityQueue<KeyDocs> queue = new PriorityQueue<>(keys.size()) {
+                @Override
+                protected boolean lessThan(KeyDocs a, KeyDocs b) {
+                    return a.docs.docID() < b.docs.docID();
+                }
+            };
+            for (int k = 0; k < keys.size(); k++) {
+                Scorer scorer = keys.get(k).scorer(ctx);
+                if (scorer != null) {
+                    DocIdSetIterator docs = scorer.iterator();
+                    docs.nextDoc();
+                    queue.add(new KeyDocs(docs, keyRecords.get(k)));
+                }
+            }
+            FieldValueReader.SharedLeaves shared = new FieldValueReader.SharedLeaves(ctx);
+            ExecutionPlan.Leaf[] leaves = new ExecutionPlan.Leaf[records.size()];
+            boolean exhausted = queue.size() == 0;
+            while (exhausted == false) {
+                // the records each of the next candidates is a candidate of, as doc id and record pairs in doc id order
+                int pairCount = 0;
+                while (pairCount < MAX_PAIRS) {
+                    int doc = queue.top().docs.docID();
+                    if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                        exhausted = true;
+                        break;
+                    }
+                    // deleted documents, including the old copies of updated ones, and filtered out ones are no candidates
+                    boolean live = (liveDocs == null || liveDocs.get(doc)) && (filterDocs == null || filterDocs.get(doc));
+                    do {
+                        KeyDocs key = queue.top();
+                        if (live) {
+                            pairs = ArrayUtil.grow(pairs, pairCount + key.records.length);
+                            for (int r : key.records) {
+                                pairs[pairCount++] = ((long) doc << 32) | r;
+                            }
+                        }
+                        key.docs.nextDoc();
+                        queue.updateTop();
+                    } while (queue.top().docs.docID() == doc);
+                }
+                // a document is a candidate of a record at most once per blocking field
+                Arrays.sort(pairs, 0, pairCount);
+
+                for (int p = 0; p < pairCount; p++) {
+                    if (p > 0 && pairs[p] == pairs[p - 1]) {
+                        continue;
+                    }
+                    int doc = (int) (pairs[p] >>> 32);
+                    int r = (int) pairs[p];
+                    if (leaves[r] == null) {
+                        leaves[r] = plans[r].getLeaf(ctx, shared);
+                    }
+                    if (hits[r] == null) {
+                        hits[r] = new TopHits(size);
+                    }
+                    double bar = hits[r].size() < size ? minScore : Math.max(minScore, hits[r].top().score);
+                    double score = leaves[r].score(doc, bar);
+                    if (score >= bar && Double.isNaN(score) == false) {
+                        hits[r].insertWithOverflow(new ScoreDoc(ctx.docBase + doc, (float) score));
+                    }
+                }
+            }
+        }
+
+        ScoreDoc[][] topHits = new ScoreDoc[records.size()][];
+        for (int r = 0; r < topHits.length; r++) {
+            topHits[r] = new ScoreDoc[hits[r] == null ? 0 : hits[r].size()];
+            for (int i = topHits[r].length - 1; i >= 0; i--) {
+                topHits[r][i] = hits[r].pop();
+            }
+        }
+        return topHits;
+    }
+
+    /*
+     * A query for each distinct value of each blocking field, along with the records that have that value. Records
+     * only sharing an empty value, or a value of an unmapped field, are no candidates of each other.
+     */
+    private static void blockingKeys(List<String> blocking, List<Map<String, Object>> records, QueryShardContext context,
+                                     List<Weight> keys, List<int[]> keyRecords) throws IOException {
+        IndexSearcher searcher = context.searcher();
+        for (String field : blocking) {
+            MappedFieldType fieldType = context.fieldMapper(field);
+            if (fieldType == null) {
+                continue;
+            }
+            Map<Object, List<Integer>> recordsByValue = new HashMap<>();
+            for (int r = 0; r < records.size(); r++) {
+                Object value = records.get(r).get(field);
+                if (value != null && String.valueOf(value).trim().isEmpty() == false) {
+                    recordsByValue.computeIfAbsent(value, v -> new ArrayList<>()).add(r);
+                }
+            }
+            for (Map.Entry<Object, List<Integer>> key : recordsByValue.entrySet()) {
+                keys.add(searcher.createWeight(searcher.rewrite(fieldType.termQuery(key.getKey(), context)),
+                        ScoreMode.COMPLETE_NO_SCORES, 1f));
+                keyRecords.add(key.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+    }
+
+    /*
+     * The candidates of a blocking key in a segment, and the records that have its value.
+     */
+    private static final class KeyDocs {
+        final DocIdSetIterator docs;
+        final int[] records;
+
+        KeyDocs(DocIdSetIterator docs, int[] records) {
+            this.docs = docs;
+            this.records = records;
+        }
+    }
+
+    /*
+     * The best hits of a record, the worst of them on top. Of two hits with the same score the first document wins.
+     */
+    private static final class TopHits extends PriorityQueue<ScoreDoc> {
+
+        TopHits(int size) {
+            super(size);
+        }
+
+        @Override
+        protected boolean lessThan(ScoreDoc a, ScoreDoc b) {
+            return a.score == b.score ? a.doc > b.doc : a.score < b.score;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Finds the candidates of a match configuration from the q-grams of its values, so that only documents which can be
+ * within the threshold of an edit distance matcher are scored.
+ * <p>
+ * A value within edit distance k of the query value shares at least <code>n - k * q</code> of the n distinct q-grams
+ * of the query value, since a single edit changes at most q of the q-grams (q + 1 for a transposition). Each matcher
+ * with a <code>qgram_field</code> therefore becomes a filter requiring that many of its q-grams in the field, which
+ * never drops a document whose value is within the threshold. A matcher with several alternative values accepts the
+ * documents passing the filter of any of them.
+ * <p>
+ * The q-gram field is expected to be analyzed with an n-gram tokenizer whose <code>min_gram</code> and
+ * <code>max_gram</code> are both <code>qgram_size</code>, without <code>token_chars</code> so that every character is
+ * kept, followed by a lowercase filter. The analyzer is not checked: q-grams of another size are never found, and
+ * q-grams spanning characters left out by <code>token_chars</code> are never indexed, which drops documents within
+ * the threshold.
+ */
+public class SimilarityBlockingQueryBuilder extends AbstractQueryBuilder<SimilarityBlockingQueryBuilder> {
+
+    public static final String NAME = "similarity_blocking";
+
+    private static final String MINIMUM_FIELDS = "minimum_fields";
+
+    private final Map<String, Object> params;
+    private final MatchProfiles profiles;
+
+    SimilarityBlockingQueryBuilder(Map<String, Object> params, MatchProfiles profiles) {
+        this.params = Objects.requireNonNull(params);
+        this.profiles = profiles;
+    }
+
+    SimilarityBlockingQueryBuilder(StreamInput in, MatchProfiles profiles) throws IOException {
+        super(in);
+        this.params = in.readMap();
+        this.profiles = profiles;
+    }
+
+    static SimilarityBlockingQueryBuilder fromXContent(XContentParser parser, MatchProfiles profiles) throws IOException {
+        Map<String, Object> params = new HashMap<>(parser.map());
+        return StringSimilarityQueryBuilder.parseBoostAndQueryName(parser, params,
+                new SimilarityBlockingQueryBuilder(params, profiles));
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeMap(params);
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params builderParams) throws IOException {
+        builder.startObject(NAME);
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            builder.field(param.getKey(), param.getValue());
+        }
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    /**
+     * Requires <code>minimum_fields</code> of the matchers with a <code>qgram_field</code>, one by default, to be
+     * within their threshold. Matchers whose q-grams can not rule any value out count as within the threshold for
+     * every document.
+     */
+    @Override
+    protected Query doToQuery(QueryShardContext context) {
+        MatchProfile profile = MatchProfile.resolve(params, profiles);
+        int minimumFields = 1;
+        if (params.containsKey(MINIMUM_FIELDS)) {
+            minimumFields = Integer.parseInt(String.valueOf(params.get(MINIMUM_FIELDS)));
+        }
+        List<Query> filters = new ArrayList<>();
+        int unfiltered = 0;
+        for (MatcherModel model : profile.matchers) {
+            if (model.qgramField != null) {
+                Query filter = qgramFilter(model, profile, context);
+                if (filter == null) {
+                    unfiltered++;
+                } else {
+                    filters.add(filter);
+                }
+            }
+        }
+        if (filters.isEmpty() && unfiltered == 0) {
+            throw new IllegalArgumentException("[" + NAME + "] needs at least one matcher with a [qgram_field]");
+        }
+        if (unfiltered >= minimumFields) {
+            return new MatchAllDocsQuery();
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Query filter : filters) {
+            builder.add(filter, Occur.SHOULD);
+        }
+        builder.setMinimumNumberShouldMatch(minimumFields - unfiltered);
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    /*
+     * The documents that may be within the threshold of the matcher, null if the q-grams can not rule out any.
+     */
+    private static Query qgramFilter(MatcherModel model, MatchProfile profile, QueryShardContext context) {
+        int gramsPerEdit;
+        switch (model.matcherName) {
+            case "levenshtein":
+                gramsPerEdit = model.qgramSize;
+                break;
+            case "optimal-string-alignment":
+            case "damerau-levenshtein":
+                gramsPerEdit = model.qgramSize + 1;
+                break;
+            default:
+                throw new IllegalArgumentException("[qgram_field] is only supported for the levenshtein, "
+                        + "optimal-string-alignment and damerau-levenshtein matchers, not for [" + model.matcherName + "]");
+        }
+        // fellegi-sunter always has a threshold, sum and multiply only when one is set
+        boolean thresholded = profile.scoreMode == ExecutionPlan.ScoreMode.FELLEGI_SUNTER
+                || profile.scoreMode != ExecutionPlan.ScoreMode.BAYES && model.threshold != 0.0;
+        if (thresholded == false) {
+            throw new IllegalArgumentException("[qgram_field] needs a [threshold] for the matcher of field [" + model.fieldName
+                    + "]");
+        }
+        // an empty document value counts as a match for a greedy matcher, and has no q-grams to find it by
+        if (ExecutionPlan.NullHandling.fromString(model.nullHandling) == ExecutionPlan.NullHandling.GREEDY) {
+            return null;
+        }
+        MappedFieldType fieldType = context.fieldMapper(model.qgramField);
+        if (fieldType == null) {
+            return new MatchNoDocsQuery("unmapped field [" + model.qgramField + "]");
+        }
+        if (model.threshold < 0) {
+            return new MatchNoDocsQuery("negative threshold for field [" + model.fieldName + "]");
+        }
+        long maxEdits = (long) Math.floor(model.threshold);
+        if (model.values.length > BooleanQuery.getMaxClauseCount()) {
+            return null;
+        }
+        // a document may be within the threshold of any of the alternative values
+        BooleanQuery.Builder alternatives = new BooleanQuery.Builder();
+        for (String value : model.values) {
+            Set<String> grams = qgrams(MatcherService.normalize(value), model.qgramSize);
+            long minimumGrams = grams.size() - maxEdits * gramsPerEdit;
+            if (grams.isEmpty() || minimumGrams <= 0 || grams.size() > BooleanQuery.getMaxClauseCount()) {
+                return null;
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String gram : grams) {
+                builder.add(new TermQuery(new Term(fieldType.name(), gram)), Occur.SHOULD);
+            }
+            builder.setMinimumNumberShouldMatch((int) minimumGrams);
+            if (model.values.length == 1) {
+                return builder.build();
+            }
+            alternatives.add(builder.build(), Occur.SHOULD);
+        }
+        return alternatives.build();
+    }
+
+    /*
+     * The distinct q-grams of a value, empty if the value has characters outside the Basic Multilingual Plane
+     * because the n-gram tokenizer counts code points rather than chars.
+     */
+    private static Set<String> qgrams(String value, int q) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isSurrogate(value.charAt(i))) {
+                return Set.of();
+            }
+        }
+        for (int i = 0; i + q <= value.length(); i++) {
+            grams.add(value.substring(i, i + q));
+        }
+        return grams;
+    }
+
+    @Override
+    protected boolean doEquals(SimilarityBlockingQueryBuilder other) {
+        return Objects.equals(params, other.params);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(params);
+    }
+}
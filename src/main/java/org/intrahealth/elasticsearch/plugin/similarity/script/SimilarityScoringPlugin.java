@@ -19,29 +19,94 @@
 package org.intrahealth.elasticsearch.plugin.similarity.script;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.indices.breaker.BreakerSettings;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.CircuitBreakerPlugin;
+import org.elasticsearch.plugins.ExtensiblePlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.repositories.RepositoriesService;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.script.ScoreScript.LeafFactory;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
 import org.elasticsearch.script.ScriptFactory;
+import org.elasticsearch.script.ScriptService;
 import org.elasticsearch.search.lookup.SearchLookup;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.CustomMatcher;
 import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+import org.intrahealth.elasticsearch.plugin.similarity.ScoreCache;
+import org.intrahealth.elasticsearch.plugin.similarity.SimilarityMatcherProvider;
+import org.intrahealth.elasticsearch.plugin.similarity.SimilarityStats;
+import org.intrahealth.elasticsearch.plugin.similarity.action.RestSimilarityBatchAction;
+import org.intrahealth.elasticsearch.plugin.similarity.action.RestSimilarityStatsAction;
+import org.intrahealth.elasticsearch.plugin.similarity.action.SimilarityBatchAction;
+import org.intrahealth.elasticsearch.plugin.similarity.action.SimilarityStatsAction;
+import org.intrahealth.elasticsearch.plugin.similarity.action.TransportSimilarityBatchAction;
+import org.intrahealth.elasticsearch.plugin.similarity.action.TransportSimilarityStatsAction;
+import org.intrahealth.elasticsearch.plugin.similarity.ingest.MinHashProcessor;
+import org.intrahealth.elasticsearch.plugin.similarity.ingest.PrepareProcessor;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Main plugin implementation and configuration.
  */
-public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
+public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin, ExtensiblePlugin, ActionPlugin, CircuitBreakerPlugin,
+        SearchPlugin, IngestPlugin {
+
+    private final List<SimilarityMatcherProvider> matcherProviders = new ArrayList<>();
+
+    private final ScoreCache scoreCache;
+
+    private final SimilarityStats stats = new SimilarityStats();
+
+    private MatcherService matcherService;
+
+    private MatchProfiles matchProfiles;
+
+    public SimilarityScoringPlugin(Settings settings) {
+        this.scoreCache = new ScoreCache(settings);
+        this.stats.setLatencySampling(SimilarityStats.LATENCY_SAMPLING_SETTING.get(settings));
+    }
+
+    /**
+     * Collects the custom matchers of the plugins that extend this one.
+     */
+    @Override
+    public void loadExtensions(ExtensionLoader loader) {
+        matcherProviders.addAll(loader.loadExtensions(SimilarityMatcherProvider.class));
+    }
 
     /**
      * Returns a {@link ScriptEngine} instance.
@@ -51,7 +116,117 @@ public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
      */
     @Override
     public ScriptEngine getScriptEngine(Settings settings, Collection<ScriptContext<?>> contexts) {
-        return new SimilarityScriptEngine();
+        return new SimilarityScriptEngine(getMatcherService(), getMatchProfiles());
+    }
+
+    /**
+     * Registers the <code>string_similarity</code> query, which scores documents like the script does, and the
+     * <code>similarity_blocking</code> and <code>similarity_minhash</code> queries, which find their candidates.
+     */
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+        MatcherService matcherService = getMatcherService();
+        MatchProfiles profiles = getMatchProfiles();
+        return List.of(
+                new QuerySpec<>(StringSimilarityQueryBuilder.NAME,
+                        in -> new StringSimilarityQueryBuilder(in, matcherService, profiles),
+                        parser -> StringSimilarityQueryBuilder.fromXContent(parser, matcherService, profiles)),
+                new QuerySpec<>(SimilarityBlockingQueryBuilder.NAME,
+                        in -> new SimilarityBlockingQueryBuilder(in, profiles),
+                        parser -> SimilarityBlockingQueryBuilder.fromXContent(parser, profiles)),
+                new QuerySpec<>(MinHashQueryBuilder.NAME, MinHashQueryBuilder::new, MinHashQueryBuilder::fromXContent));
+    }
+
+    /**
+     * Registers the ingest processors that index the MinHash band keys of a field and the companion fields the
+     * matchers read instead of the field.
+     */
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        return Map.of(MinHashProcessor.TYPE, new MinHashProcessor.Factory(),
+                PrepareProcessor.TYPE, new PrepareProcessor.Factory());
+    }
+
+    /**
+     * Registers the match profiles, the score cache and the statistics settings.
+     */
+    @Override
+    public List<Setting<?>> getSettings() {
+        return List.of(MatchProfiles.PROFILES_SETTING, ScoreCache.SIZE_SETTING, ScoreCache.BREAKER_LIMIT_SETTING,
+                SimilarityStats.LATENCY_SAMPLING_SETTING);
+    }
+
+    /**
+     * The circuit breaker the score cache is accounted in.
+     */
+    @Override
+    public BreakerSettings getCircuitBreaker(Settings settings) {
+        return new BreakerSettings(ScoreCache.BREAKER_NAME, ScoreCache.BREAKER_LIMIT_SETTING.get(settings).getBytes(), 1.0,
+                CircuitBreaker.Type.MEMORY, CircuitBreaker.Durability.TRANSIENT);
+    }
+
+    @Override
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        scoreCache.setCircuitBreaker(circuitBreaker);
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return List.of(new ActionHandler<>(SimilarityStatsAction.INSTANCE, TransportSimilarityStatsAction.class),
+                new ActionHandler<>(SimilarityBatchAction.INSTANCE, TransportSimilarityBatchAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return List.of(new RestSimilarityStatsAction(), new RestSimilarityBatchAction());
+    }
+
+    /**
+     * Loads the match profiles and keeps them and the latency sampling up to date with the cluster settings. The
+     * score cache, the statistics and the batch scorer are handed to the transport actions.
+     */
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry,
+                                               IndexNameExpressionResolver indexNameExpressionResolver,
+                                               Supplier<RepositoriesService> repositoriesServiceSupplier) {
+        MatchProfiles profiles = getMatchProfiles();
+        profiles.update(MatchProfiles.PROFILES_SETTING.getAsMap(clusterService.getSettings()));
+        clusterService.getClusterSettings().addAffixMapUpdateConsumer(MatchProfiles.PROFILES_SETTING, profiles::update,
+                profiles::validate);
+        clusterService.getClusterSettings().addSettingsUpdateConsumer(SimilarityStats.LATENCY_SAMPLING_SETTING,
+                stats::setLatencySampling);
+        return List.of(scoreCache, stats, new SimilarityBatchScorer(getMatcherService(), profiles));
+    }
+
+    /*
+     * The matchers are registered once per node and shared by all searches.
+     */
+    private synchronized MatcherService getMatcherService() {
+        if (matcherService == null) {
+            Map<String, Supplier<CustomMatcher>> customMatchers = new HashMap<>();
+            for (SimilarityMatcherProvider provider : matcherProviders) {
+                for (Map.Entry<String, Supplier<CustomMatcher>> entry : provider.getMatchers().entrySet()) {
+                    if (customMatchers.putIfAbsent(entry.getKey(), entry.getValue()) != null) {
+                        throw new IllegalArgumentException("The matcher [" + entry.getKey() + "] is registered twice.");
+                    }
+                }
+            }
+            matcherService = new MatcherService(customMatchers, scoreCache, stats);
+        }
+        return matcherService;
+    }
+
+    private synchronized MatchProfiles getMatchProfiles() {
+        if (matchProfiles == null) {
+            matchProfiles = new MatchProfiles(getMatcherService());
+        }
+        return matchProfiles;
     }
 
     /**
@@ -59,6 +234,14 @@ public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
      */
     private static class SimilarityScriptEngine implements ScriptEngine {
 
+        private final MatcherService matcherService;
+        private final MatchProfiles profiles;
+
+        SimilarityScriptEngine(MatcherService matcherService, MatchProfiles profiles) {
+            this.matcherService = matcherService;
+            this.profiles = profiles;
+        }
+
         /**
          * The language name used in the script APIs to refer to this scripting backend.
          */
@@ -89,7 +272,7 @@ public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
                 throw new IllegalArgumentException(getType() + " scripts cannot be used for context [" + context.name + "]");
             }
             if ("string_similarity".equals(scriptSource)) {
-                ScoreScript.Factory factory = new SimilarityFactory();
+                ScoreScript.Factory factory = new SimilarityFactory(matcherService, profiles);
                 return context.factoryClazz.cast(factory);
             }
             throw new IllegalArgumentException("Unknown script name " + scriptSource);
@@ -110,12 +293,20 @@ public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
      */
     private static class SimilarityFactory implements ScoreScript.Factory, ScriptFactory {
 
+        private final MatcherService matcherService;
+        private final MatchProfiles profiles;
+
+        SimilarityFactory(MatcherService matcherService, MatchProfiles profiles) {
+            this.matcherService = matcherService;
+            this.profiles = profiles;
+        }
+
         /**
          * @return a new instance of {@link SimilarityLeafFactory}.
          */
         @Override
         public LeafFactory newFactory(Map<String, Object> params, SearchLookup lookup) {
-            return new SimilarityLeafFactory(params, lookup);
+            return new SimilarityLeafFactory(params, lookup, matcherService, profiles);
         }
 
     }
@@ -125,31 +316,15 @@ public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
      */
     private static class SimilarityLeafFactory implements LeafFactory {
 
-        private final MatcherService matcherService = new MatcherService();
-        private Map<String, Object> params;
-        private List<MatcherModel> matchers;
-        private SearchLookup lookup;
+        private final Map<String, Object> params;
+        private final SearchLookup lookup;
+        private final ExecutionPlan plan;
 
-        SimilarityLeafFactory(Map<String, Object> params, SearchLookup lookup) {
-            if (params.containsKey("matchers") == false) {
-                throw new IllegalArgumentException("Missing parameter [matchers]");
-            }
-            if (params.containsKey("score_mode") == false) {
-                throw new IllegalArgumentException("Missing parameter [score_mode]");
-            }
-            String score_mode = String.valueOf(params.get("score_mode"));
-            ArrayList<String> validMethods = new ArrayList<String>( Arrays.asList( "fellegi-sunter", "bayes", "multiply", "sum" ) );
-            if ( !validMethods.contains( score_mode ) ) {
-                throw new IllegalArgumentException(
-                        "Invalid parameter. Method can only be: fellegi-sunter, bayes, multiply or sum. Method is " 
-                        + score_mode );
-            }
-            if (score_mode.equals("fellegi-sunter") && params.containsKey("base_score") == false) {
-                throw new IllegalArgumentException("Missing parameter [base_score] for fellegi-sunter (because results can't be negative)");
-            }
+        SimilarityLeafFactory(Map<String, Object> params, SearchLookup lookup, MatcherService matcherService,
+                              MatchProfiles profiles) {
             this.params = params;
-            this.matchers = MatcherModelParser.parseMatcherModels(params);
             this.lookup = lookup;
+            this.plan = ExecutionPlan.compile(params, matcherService, profiles, lookup);
         }
 
         @Override
@@ -159,393 +334,16 @@ public class SimilarityScoringPlugin extends Plugin implements ScriptPlugin {
 
         @Override
         public ScoreScript newInstance(LeafReaderContext ctx) throws IOException {
-
-            String score_mode = String.valueOf(params.get("score_mode"));
-            if ( score_mode.equals( "fellegi-sunter" ) ) {
-
-                double base_score = Double.parseDouble( String.valueOf( params.get("base_score") ) );
-                return new ScoreScript(params, lookup, ctx) {
-                    @Override
-                    public double execute(ExplanationHolder explanation) {
-                        double totalScore = base_score;
-                        for (MatcherModel matcherModel : matchers) {
-                            String value = String.valueOf(lookup.source().get(matcherModel.fieldName));
-                            String nullHandling = "";
-                            if ( value.trim().isEmpty() && matcherModel.value.trim().isEmpty() ) {
-                              if ( matcherModel.nullHandlingBoth.equals("") ) {
-                                nullHandling = matcherModel.nullHandling;
-                              } else {
-                                nullHandling = matcherModel.nullHandlingBoth;
-                              }
-                            } else if ( value.trim().isEmpty() || matcherModel.value.trim().isEmpty() ) {
-                              nullHandling = matcherModel.nullHandling;
-                            }
-                            if ( nullHandling.equals("conservative") ) {
-                              totalScore += matcherModel.unmatch;
-                            } else if ( nullHandling.equals("greedy") ) {
-                              totalScore += matcherModel.match;
-                            } else if ( nullHandling.equals("moderate") ) {
-                              // No change to score if moderate
-                              //totalScore += 0.0;
-                            } else {
-                                double score = matcherService.matchScore(matcherModel.matcherName, matcherModel.value, value);
-                                if ( matcherService.isDistance(matcherModel.matcherName) 
-                                    ? score <= matcherModel.threshold : score >= matcherModel.threshold ) {
-                                    totalScore += matcherModel.match;
-                                } else {
-                                    totalScore += matcherModel.unmatch;
-                                }
-                            }
-                        }
-                        return totalScore;
-                    }
-                };
-
-            } else if ( score_mode.equals( "bayes" ) ) { 
-                double NOT_SCORED = 2;
-                return new ScoreScript(params, lookup, ctx) {
-
-                    @Override
-                    public double execute(ExplanationHolder explanation) {
-                        double totalScore = NOT_SCORED;
-                        for (MatcherModel matcherModel : matchers) {
-                            String value = String.valueOf(lookup.source().get(matcherModel.fieldName));
-                            boolean noScore = false;
-                            String nullHandling = "";
-
-                            if ( value.trim().isEmpty() && matcherModel.value.trim().isEmpty() ) {
-                              if ( matcherModel.nullHandlingBoth.equals("") ) {
-                                nullHandling = matcherModel.nullHandling;
-                              } else {
-                                nullHandling = matcherModel.nullHandlingBoth;
-                              }
-                            } else if ( value.trim().isEmpty() || matcherModel.value.trim().isEmpty() ) {
-                              nullHandling = matcherModel.nullHandling;
-                            }
-
-                            double score;
-                            if ( nullHandling.equals("conservative") ) {
-                                score = matcherModel.low;
-                            } else if ( nullHandling.equals("greedy") ) {
-                                score = matcherModel.high;
-                            } else if ( nullHandling.equals("moderate") ) {
-                                // No change to score if moderate
-                                //totalScore += 0.0;
-                                noScore = true;
-                                score = 0.0;
-                            } else {
-                                score = matcherService.matchScore(matcherModel.matcherName, matcherModel.value, value);
-                                if (score > matcherModel.high) {
-                                    score = matcherModel.high;
-                                }
-                                if (score < matcherModel.low) {
-                                    score = matcherModel.low;
-                                }
-                            }
-                            if ( !noScore ) {
-                                totalScore = totalScore == NOT_SCORED ? score : combineScores(totalScore, score);
-                            }
-                        }
-                        return totalScore;
-                    }
-
-                    /**
-                    * From: https://github.com/larsga/Duke/blob/master/duke-core/src/main/java/no/priv/garshol/duke/utils/Utils.java
-                    * Combines two probabilities using Bayes' theorem. This is the
-                    * approach known as "naive Bayes", very well explained here:
-                    * http://www.paulgraham.com/naivebayes.html
-                    */
-                    public double combineScores(double score1, double score2) {
-                        return (score1 * score2) / ((score1 * score2) + ((1.0 - score1) * (1.0 - score2)));
-                    }
-    
-                };
-
-             } else if ( score_mode.equals( "multiply" ) ) {
-
-                return new ScoreScript(params, lookup, ctx) {
-
-                    @Override
-                    public double execute(ExplanationHolder explanation) {
-                        double totalScore = 1.0;
-                        for (MatcherModel matcherModel : matchers) {
-                            String value = String.valueOf(lookup.source().get(matcherModel.fieldName));
-                            boolean noScore = false;
-                            String nullHandling = "";
-
-                            if ( value.trim().isEmpty() && matcherModel.value.trim().isEmpty() ) {
-                              if ( matcherModel.nullHandlingBoth.equals("") ) {
-                                nullHandling = matcherModel.nullHandling;
-                              } else {
-                                nullHandling = matcherModel.nullHandlingBoth;
-                              }
-                            } else if ( value.trim().isEmpty() || matcherModel.value.trim().isEmpty() ) {
-                              nullHandling = matcherModel.nullHandling;
-                            }
-
-                            double score;
-                            if ( nullHandling.equals("conservative") ) {
-                                score = 0.0;
-                            } else if ( nullHandling.equals("greedy") ) {
-                                // This result will be a bit odd without a threshold set
-                                score = 1.0;
-                            } else if ( nullHandling.equals("moderate") ) {
-                                // No change to score if moderate
-                                //totalScore += 0.0;
-                                noScore = true;
-                                score = 0.0;
-                            } else {
-                                score = matcherService.matchScore(matcherModel.matcherName, matcherModel.value, value);
-                                if ( matcherModel.threshold != 0.0 ) {
-                                    if ( matcherService.isDistance(matcherModel.matcherName) 
-                                        ? score <= matcherModel.threshold : score >= matcherModel.threshold ) {
-                                        score = 1.0;
-                                    } else {
-                                        score = 0.0;
-                                    }
-                                }
-                            }
-                            if ( !noScore ) {
-                                totalScore = totalScore * score * matcherModel.weight;
-                            }
-                        }
-                        return totalScore;
-                    }
-
-                };
-
-             } else { // default to sum if nothing is set
-
-                return new ScoreScript(params, lookup, ctx) {
-
-                    @Override
-                    public double execute(ExplanationHolder explanation) {
-                        double totalScore = 0.0;
-                        for (MatcherModel matcherModel : matchers) {
-                            String value = String.valueOf(lookup.source().get(matcherModel.fieldName));
-                            String nullHandling = "";
-
-                            if ( value.trim().isEmpty() && matcherModel.value.trim().isEmpty() ) {
-                              if ( matcherModel.nullHandlingBoth.equals("") ) {
-                                nullHandling = matcherModel.nullHandling;
-                              } else {
-                                nullHandling = matcherModel.nullHandlingBoth;
-                              }
-                            } else if ( value.trim().isEmpty() || matcherModel.value.trim().isEmpty() ) {
-                              nullHandling = matcherModel.nullHandling;
-                            }
-
-                            double score;
-                            if ( nullHandling.equals("conservative") ) {
-                                score = 0.0;
-                            } else if ( nullHandling.equals("greedy") ) {
-                                // This result will be a bit odd without a threshold set
-                                score = 1.0;
-                            } else if ( nullHandling.equals("moderate") ) {
-                                // Same as conservative when doing sum
-                                //totalScore += 0.0;
-                                score = 0.0;
-                            } else {
-                                score = matcherService.matchScore(matcherModel.matcherName, matcherModel.value, value);
-                                if ( matcherModel.threshold != 0.0 ) {
-                                    if ( matcherService.isDistance(matcherModel.matcherName) 
-                                        ? score <= matcherModel.threshold : score >= matcherModel.threshold ) {
-                                        score = 1.0;
-                                    } else {
-                                        score = 0.0;
-                                    }
-                                }
-                            }
-                            totalScore += score * matcherModel.weight;
-                        }
-                        return totalScore;
-                    }
-
-                };
-
-             }
-        }
-
-    }
-
-    /**
-     * Encapsulates a field with its value, preferred matcher and the high and low values to be used for scoring.
-     */
-    private static class MatcherModel {
-
-        /**
-         * The name of the field to be matched.
-         */
-        private String fieldName;
-
-        /**
-         * The value of the field to be matched.
-         */
-        private String value;
-
-        /**
-         * The name of the matcher to use for matching.
-         */
-        private String matcherName;
-
-        /**
-         * The score to assign a perfect match. Should be high, non-zero and between 0 and 1.
-         */
-        private double high;
-
-        /**
-         * The score to assign a perfect match. Should be low, non-zero and between 0 and 1.
-         */
-        private double low;
-
-        /**
-         * The match weight for Fellegi-Sunter linkage. Based on the mValue and uValue for the field.
-         */
-        private double match;
-
-        /**
-         * The unmatch weight for Fellegi-Sunter linkage. Based on the mValue and uValue for the field.
-         */
-        private double unmatch;
-
-        /**
-         * The threshold to determine a match or not based on the string distance or similarity.
-         */
-        private double threshold;
-
-        /**
-         * The weight for the field when using sum or multiple score_modes.
-         */
-        private double weight;
-
-        /**
-         * The name of the matcher to use for matching.
-         */
-        private String nullHandling;
-
-        /**
-         * The name of the matcher to use for matching.
-         */
-        private String nullHandlingBoth;
-
-        /**
-         * Constructs a new instance of a MatcherModel.
-         */
-        MatcherModel(String fieldName, Object value, String matcherName, double high, double low, 
-                double mValue, double uValue, double threshold, double weight, 
-                String nullHandling, String nullHandlingBoth) {
-            this.fieldName = fieldName;
-            this.value = String.valueOf(value);
-            this.matcherName = matcherName;
-            this.high = high;
-            this.low = low;
-            this.match = java.lang.Math.log10( mValue / uValue );
-            this.unmatch = java.lang.Math.log10( (1 - mValue) / (1 - uValue) );
-            this.threshold = threshold;
-            this.weight = weight;
-            this.nullHandling = nullHandling;
-            this.nullHandlingBoth = nullHandlingBoth;
-        }
-
-    }
-
-    /**
-     * Converts each matcher entry from the script to a {@link MatcherModel}.
-     */
-    private static class MatcherModelParser {
-
-        private static String FIELD = "field";
-        private static String VALUE = "value";
-        private static String MATCHER = "matcher";
-        /* For Bayes score_mode */
-        private static String HIGH = "high";
-        private static String LOW = "low";
-        /* For Fellegi-Sunter score_mode */
-        private static String MVALUE = "m_value";
-        private static String UVALUE = "u_value";
-        private static String THRESHOLD = "threshold";
-        private static String WEIGHT = "weight";
-        /* For null value handling */
-        private static String NULL_HANDLING = "null_handling";
-        private static String NULL_HANDLING_BOTH = "null_handling_both";
-
-        @SuppressWarnings("unchecked")
-        public static List<MatcherModel> parseMatcherModels(Map<String, Object> params) {
-            final String score_mode = String.valueOf(params.get("score_mode"));
-            List<MatcherModel> matcherModels = new ArrayList<>();
-            List<Map<String, Object>> script = (List<Map<String, Object>>) params.get("matchers");
-            script.forEach(entry -> {
-                checkMatcherConfiguration(score_mode, entry);
-                String fieldName = String.valueOf(entry.get(FIELD));
-                String value = String.valueOf(entry.get(VALUE));
-                String matcherName = String.valueOf(entry.get(MATCHER));
-                String nullHandling = "off";
-                String nullHandlingBoth = "";
-                if ( entry.containsKey(NULL_HANDLING) ) {
-                    nullHandling = String.valueOf(entry.get(NULL_HANDLING));
-                    if ( entry.containsKey(NULL_HANDLING_BOTH) ) {
-                        nullHandlingBoth = String.valueOf(entry.get(NULL_HANDLING_BOTH));
+            ExecutionPlan.Leaf leaf = plan.getLeaf(ctx);
+            return new ScoreScript(params, lookup, ctx) {
+                @Override
+                public double execute(ExplanationHolder explanation) {
+                    if (explanation != null) {
+                        explanation.set(ExecutionPlan.describe(leaf.explain(_getDocId())));
                     }
+                    return leaf.score(_getDocId());
                 }
-                double high, low, mValue, uValue, threshold;
-                double weight = 1.0;
-                if ( score_mode.equals("fellegi-sunter" ) ) {
-                    mValue = Double.parseDouble( String.valueOf( entry.get(MVALUE) ) );
-                    uValue = Double.parseDouble( String.valueOf( entry.get(UVALUE) ) );
-                    threshold = Double.parseDouble( String.valueOf( entry.get(THRESHOLD) ) );
-                    high = low = 0.0;
-                } else if ( score_mode.equals("bayes") ) { 
-                    high = Double.parseDouble( String.valueOf( entry.get(HIGH) ) );
-                    low = Double.parseDouble( String.valueOf( entry.get(LOW) ) );
-                    mValue = uValue = threshold = 0.0;
-                } else { // multiply and sum have the weight option
-                    high = low = mValue = uValue = threshold = 0.0;
-                    if ( entry.containsKey(WEIGHT) ) {
-                        weight = Double.parseDouble( String.valueOf( entry.get(WEIGHT) ) );
-                    }
-                    if ( entry.containsKey(THRESHOLD) ) {
-                        threshold = Double.parseDouble( String.valueOf( entry.get(THRESHOLD) ) );
-                    }
-                }
-                matcherModels.add(new MatcherModel(fieldName, value, matcherName, high, low, mValue, uValue, 
-                      threshold, weight, nullHandling, nullHandlingBoth));
-            });
-            return matcherModels;
-        }
-
-        private static void checkMatcherConfiguration(String score_mode, Map<String, Object> entry) {
-            if (!entry.containsKey(FIELD)) {
-                throw new IllegalArgumentException("Invalid matcher configuration. Missing: [" + FIELD + "] property.");
-            }
-            if (!entry.containsKey(VALUE)) {
-                throw new IllegalArgumentException("Invalid matcher configuration. Missing: [" + VALUE + "] property.");
-            }
-            if (!entry.containsKey(MATCHER)) {
-                throw new IllegalArgumentException("Invalid matcher configuration. Missing: [" + MATCHER + "] property.");
-            }
-            if ( score_mode.equals( "fellegi-sunter" ) ) {
-                if (!entry.containsKey(THRESHOLD)) {
-                    throw new IllegalArgumentException("Invalid matcher configuration for fellegi-sunter. Missing: [" 
-                            + THRESHOLD + "] property.");
-                }
-                if (!entry.containsKey(MVALUE)) {
-                    throw new IllegalArgumentException("Invalid matcher configuration for fellegi-sunter. Missing: [" 
-                            + MVALUE + "] property.");
-                }
-                if (!entry.containsKey(UVALUE)) {
-                    throw new IllegalArgumentException("Invalid matcher configuration for fellegi-sunter. Missing: [" 
-                            + UVALUE + "] property.");
-                }
-            } else if ( score_mode.equals( "bayes" ) ) { 
-                if (!entry.containsKey(HIGH)) {
-                    throw new IllegalArgumentException("Invalid matcher configuration for bayes. Missing: [" 
-                            + HIGH + "] property.");
-                }
-                if (!entry.containsKey(LOW)) {
-                    throw new IllegalArgumentException("Invalid matcher configuration for bayes. Missing: [" 
-                            + LOW + "] property.");
-                }
-            }
+            };
         }
 
     }
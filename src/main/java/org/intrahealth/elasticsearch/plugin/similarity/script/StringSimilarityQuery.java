@@ -0,0 +1,189 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Scores documents with an {@link ExecutionPlan} directly from a Lucene query rather than from a script.
+ * <p>
+ * Candidates are visited in two phases: the approximation only skips the documents that can not reach the minimum
+ * score because they do not have a value for a field, and the plan then rejects the remaining documents as soon as
+ * their score is known to be too low, before the more expensive matchers run. When only the top hits are collected,
+ * the minimum competitive score of the collector raises that bar as the search goes.
+ */
+final class StringSimilarityQuery extends Query {
+
+    /*
+     * The rough cost of running a matcher compared to reading a doc value.
+     */
+    private static final float MATCHER_COST = 10f;
+
+    private final Map<String, Object> params;
+    private final ExecutionPlan plan;
+
+    StringSimilarityQuery(Map<String, Object> params, ExecutionPlan plan) {
+        this.params = params;
+        this.plan = plan;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) {
+        return new Weight(this) {
+            @Override
+            public void extractTerms(Set<Term> terms) {
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+                Explanation explanation = plan.getLeaf(context).explain(doc);
+                double score = explanation.getValue().doubleValue();
+                if (score < plan.minScore) {
+                    return Explanation.noMatch("string similarity score is below min_score [" + plan.minScore + "]", explanation);
+                }
+                return Explanation.match((float) (score * boost), "string similarity score, computed with boost [" + boost + "]",
+                        explanation);
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                return new SimilarityScorer(this, context, boost, scoreMode == ScoreMode.TOP_SCORES);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                // the plan may read the _source of the documents
+                return false;
+            }
+        };
+    }
+
+    private class SimilarityScorer extends Scorer {
+
+        private final ExecutionPlan.Leaf leaf;
+        private final DocIdSetIterator approximation;
+        private final TwoPhaseIterator twoPhase;
+        private final float boost;
+        private final boolean topScores;
+        /* the lowest score a document needs to match, raised to the minimum competitive score for top hits */
+        private double bar;
+        private double score;
+
+        SimilarityScorer(Weight weight, LeafReaderContext context, float boost, boolean topScores) throws IOException {
+            super(weight);
+            this.leaf = plan.getLeaf(context);
+            this.approximation = plan.candidates(context, plan.minScore);
+            this.boost = boost;
+            this.topScores = topScores;
+            this.bar = plan.minScore;
+            this.twoPhase = new TwoPhaseIterator(approximation) {
+                @Override
+                public boolean matches() {
+                    int doc = approximation.docID();
+                    score = leaf.score(doc, bar);
+                    if (score < bar) {
+                        return false;
+                    }
+                    if (score < 0 || Double.isNaN(score)) {
+                        throw new IllegalArgumentException(StringSimilarityQueryBuilder.NAME + " query returned an invalid score ["
+                                + score + "] for doc [" + doc + "].");
+                    }
+                    return true;
+                }
+
+                @Override
+                public float matchCost() {
+                    return plan.size * MATCHER_COST;
+                }
+            };
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+        }
+
+        @Override
+        public TwoPhaseIterator twoPhaseIterator() {
+            return twoPhase;
+        }
+
+        @Override
+        public int docID() {
+            return approximation.docID();
+        }
+
+        @Override
+        public float score() {
+            return (float) (score * boost);
+        }
+
+        @Override
+        public float getMaxScore(int upTo) {
+            return Math.nextUp((float) (plan.maxScore() * boost));
+        }
+
+        @Override
+        public void setMinCompetitiveScore(float minCompetitiveScore) {
+            if (topScores && boost > 0) {
+                // stay a little below the bar so that rounding the score to a float never drops a competitive document
+                bar = Math.max(plan.minScore, (minCompetitiveScore - Math.ulp(minCompetitiveScore)) / (double) boost);
+            }
+        }
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        visitor.visitLeaf(this);
+    }
+
+    @Override
+    public String toString(String field) {
+        return StringSimilarityQueryBuilder.NAME + "(" + params + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (sameClassAs(other) == false) {
+            return false;
+        }
+        StringSimilarityQuery that = (StringSimilarityQuery) other;
+        return params.equals(that.params);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), params);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Builds a {@link StringSimilarityQuery}. The body of the query takes the same parameters as the
+ * <code>string_similarity</code> script, either a list of matchers or a match profile with its values. Documents
+ * scoring below the optional <code>min_score</code> do not match.
+ */
+public class StringSimilarityQueryBuilder extends AbstractQueryBuilder<StringSimilarityQueryBuilder> {
+
+    public static final String NAME = "string_similarity";
+
+    private final Map<String, Object> params;
+    private final MatcherService matcherService;
+    private final MatchProfiles profiles;
+
+    StringSimilarityQueryBuilder(Map<String, Object> params, MatcherService matcherService, MatchProfiles profiles) {
+        this.params = Objects.requireNonNull(params);
+        this.matcherService = matcherService;
+        this.profiles = profiles;
+    }
+
+    StringSimilarityQueryBuilder(StreamInput in, MatcherService matcherService, MatchProfiles profiles) throws IOException {
+        super(in);
+        this.params = in.readMap();
+        this.matcherService = matcherService;
+        this.profiles = profiles;
+    }
+
+    static StringSimilarityQueryBuilder fromXContent(XContentParser parser, MatcherService matcherService,
+                                                     MatchProfiles profiles) throws IOException {
+        Map<String, Object> params = new HashMap<>(parser.map());
+        return parseBoostAndQueryName(parser, params, new StringSimilarityQueryBuilder(params, matcherService, profiles));
+    }
+
+    /*
+     * Takes the boost and the name of a query out of its body, what is left are the match parameters.
+     */
+    static <QB extends AbstractQueryBuilder<QB>> QB parseBoostAndQueryName(XContentParser parser, Map<String, Object> params,
+                                                                           QB builder) {
+        try {
+            Object value = params.remove(BOOST_FIELD.getPreferredName());
+            if (value != null) {
+                builder.boost(value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString()));
+            }
+            value = params.remove(NAME_FIELD.getPreferredName());
+            if (value != null) {
+                builder.queryName(value.toString());
+            }
+        } catch (NumberFormatException e) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + builder.getWriteableName() + "] " + e.getMessage(), e);
+        }
+        return builder;
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeMap(params);
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params builderParams) throws IOException {
+        builder.startObject(NAME);
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            builder.field(param.getKey(), param.getValue());
+        }
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) {
+        if (context.allowExpensiveQueries() == false) {
+            throw new ElasticsearchException("[" + NAME + "] queries cannot be executed when 'search.allow_expensive_queries' "
+                    + "is set to false.");
+        }
+        ExecutionPlan plan = ExecutionPlan.compile(params, matcherService, profiles, context.lookup());
+        return new StringSimilarityQuery(params, plan);
+    }
+
+    @Override
+    protected boolean doEquals(StringSimilarityQueryBuilder other) {
+        return Objects.equals(params, other.params);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(params);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import info.debatty.java.stringsimilarity.Levenshtein;
+import info.debatty.java.stringsimilarity.LongestCommonSubsequence;
+
+/**
+ * Checks the bit-parallel Levenshtein distance and longest common subsequence against the library, for patterns of
+ * every length that fits in a word and texts shorter and longer than the pattern.
+ */
+public class BitParallelPatternTests extends StringMatcherTestCase {
+
+    private static final Levenshtein LEVENSHTEIN = new Levenshtein();
+    private static final LongestCommonSubsequence LONGEST_COMMON_SUBSEQUENCE = new LongestCommonSubsequence();
+
+    public void testLevenshtein() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomPattern();
+            String s2 = randomBoolean() ? randomSimilarValue(s1) : randomValue(BitParallelPattern.MAX_LENGTH * 2);
+            assertEquals(s1 + " / " + s2, (int) LEVENSHTEIN.distance(s1, s2), new BitParallelPattern(s1).levenshtein(s2));
+        }
+    }
+
+    public void testLongestCommonSubsequence() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomPattern();
+            String s2 = randomBoolean() ? randomSimilarValue(s1) : randomValue(BitParallelPattern.MAX_LENGTH * 2);
+            assertEquals(s1 + " / " + s2, LONGEST_COMMON_SUBSEQUENCE.length(s1, s2),
+                    new BitParallelPattern(s1).longestCommonSubsequence(s2));
+        }
+    }
+
+    public void testFits() {
+        // the matchers compare empty values and longer patterns with the library instead
+        assertFalse(BitParallelPattern.fits(""));
+        assertTrue(BitParallelPattern.fits(randomAlphaOfLength(BitParallelPattern.MAX_LENGTH)));
+        assertFalse(BitParallelPattern.fits(randomAlphaOfLength(BitParallelPattern.MAX_LENGTH + 1)));
+    }
+
+    private static String randomPattern() {
+        String pattern = randomValue(BitParallelPattern.MAX_LENGTH);
+        return pattern.isEmpty() ? "a" : pattern;
+    }
+}
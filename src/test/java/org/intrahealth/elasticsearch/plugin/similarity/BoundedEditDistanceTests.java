@@ -0,0 +1,78 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import info.debatty.java.stringsimilarity.Damerau;
+import info.debatty.java.stringsimilarity.Levenshtein;
+import info.debatty.java.stringsimilarity.OptimalStringAlignment;
+
+/**
+ * Checks that the bounded edit distances are the distances of the library up to the limit, and the limit plus one
+ * past it.
+ */
+public class BoundedEditDistanceTests extends StringMatcherTestCase {
+
+    private static final Levenshtein LEVENSHTEIN = new Levenshtein();
+    private static final OptimalStringAlignment OPTIMAL_STRING_ALIGNMENT = new OptimalStringAlignment();
+    private static final Damerau DAMERAU = new Damerau();
+
+    public void testLevenshtein() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            int limit = randomIntBetween(0, 8);
+            assertEquals(s1 + " / " + s2 + " within " + limit, Math.min((int) LEVENSHTEIN.distance(s1, s2), limit + 1),
+                    BoundedEditDistance.levenshtein(s1, s2, limit));
+        }
+    }
+
+    public void testOptimalStringAlignment() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            int limit = randomIntBetween(0, 8);
+            assertEquals(s1 + " / " + s2 + " within " + limit,
+                    Math.min((int) OPTIMAL_STRING_ALIGNMENT.distance(s1, s2), limit + 1),
+                    BoundedEditDistance.optimalStringAlignment(s1, s2, limit));
+        }
+    }
+
+    public void testDamerau() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            int limit = randomIntBetween(0, 8);
+            assertEquals(s1 + " / " + s2 + " within " + limit, Math.min((int) DAMERAU.distance(s1, s2), limit + 1),
+                    BoundedEditDistance.damerau(s1, s2, limit));
+        }
+    }
+
+    public void testLongValues() {
+        for (int i = 0; i < 10; i++) {
+            String s1 = randomValue(300);
+            String s2 = randomSimilarValue(s1);
+            int limit = randomIntBetween(0, 200);
+            String message = s1 + " / " + s2 + " within " + limit;
+            assertEquals(message, Math.min((int) LEVENSHTEIN.distance(s1, s2), limit + 1),
+                    BoundedEditDistance.levenshtein(s1, s2, limit));
+            assertEquals(message, Math.min((int) DAMERAU.distance(s1, s2), limit + 1),
+                    BoundedEditDistance.damerau(s1, s2, limit));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import info.debatty.java.stringsimilarity.Damerau;
+import info.debatty.java.stringsimilarity.JaroWinkler;
+import info.debatty.java.stringsimilarity.Levenshtein;
+import info.debatty.java.stringsimilarity.LongestCommonSubsequence;
+import info.debatty.java.stringsimilarity.OptimalStringAlignment;
+
+/**
+ * Checks the edit distances of {@link EditDistance} against the string similarity library they replace.
+ */
+public class EditDistanceTests extends StringMatcherTestCase {
+
+    private static final Levenshtein LEVENSHTEIN = new Levenshtein();
+    private static final OptimalStringAlignment OPTIMAL_STRING_ALIGNMENT = new OptimalStringAlignment();
+    private static final Damerau DAMERAU = new Damerau();
+    private static final LongestCommonSubsequence LONGEST_COMMON_SUBSEQUENCE = new LongestCommonSubsequence();
+    private static final JaroWinkler JARO_WINKLER = new JaroWinkler();
+
+    public void testLevenshtein() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            assertEquals(s1 + " / " + s2, (int) LEVENSHTEIN.distance(s1, s2), EditDistance.levenshtein(s1, s2));
+        }
+    }
+
+    public void testOptimalStringAlignment() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            assertEquals(s1 + " / " + s2, (int) OPTIMAL_STRING_ALIGNMENT.distance(s1, s2),
+                    EditDistance.optimalStringAlignment(s1, s2));
+        }
+    }
+
+    public void testDamerau() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            assertEquals(s1 + " / " + s2, (int) DAMERAU.distance(s1, s2), EditDistance.damerau(s1, s2));
+        }
+    }
+
+    public void testLongestCommonSubsequence() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            assertEquals(s1 + " / " + s2, LONGEST_COMMON_SUBSEQUENCE.length(s1, s2), EditDistance.longestCommonSubsequence(s1, s2));
+        }
+    }
+
+    public void testJaroWinkler() {
+        for (int i = 0; i < 1000; i++) {
+            String s1 = randomValue(20);
+            String s2 = randomSimilarValue(s1);
+            assertEquals(s1 + " / " + s2, JARO_WINKLER.similarity(s1, s2), EditDistance.jaroWinkler(s1, s2), 0.0);
+        }
+    }
+
+    /**
+     * Values longer than the scratch arrays kept between comparisons are compared in arrays of their own.
+     */
+    public void testLongValues() {
+        for (int i = 0; i < 10; i++) {
+            String s1 = randomValue(300);
+            String s2 = randomSimilarValue(s1);
+            String message = s1 + " / " + s2;
+            assertEquals(message, (int) LEVENSHTEIN.distance(s1, s2), EditDistance.levenshtein(s1, s2));
+            assertEquals(message, (int) DAMERAU.distance(s1, s2), EditDistance.damerau(s1, s2));
+            assertEquals(message, JARO_WINKLER.similarity(s1, s2), EditDistance.jaroWinkler(s1, s2), 0.0);
+        }
+    }
+}
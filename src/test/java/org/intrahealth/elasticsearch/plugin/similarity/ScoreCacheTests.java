@@ -0,0 +1,73 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.elasticsearch.common.settings.Settings;
+
+import java.util.Collections;
+
+/**
+ * Checks that the matchers of the score cache keep the scores and the kind of the matchers they wrap.
+ */
+public class ScoreCacheTests extends StringMatcherTestCase {
+
+    private final MatcherService matcherService = new MatcherService(Collections.emptyMap(),
+            new ScoreCache(Settings.builder().put(ScoreCache.SIZE_SETTING.getKey(), "1mb").build()), new SimilarityStats());
+
+    public void testBoundedEditDistance() {
+        for (String matcherName : new String[] { "levenshtein", "optimal-string-alignment" }) {
+            String query = randomValue(10);
+            MatcherService.PreparedMatcher matcher = matcherService.prepare(matcherName, query, randomIntBetween(0, 2));
+            MatcherService.PreparedMatcher cached = matcherService.cached(matcher, matcherName, query);
+            assertTrue(cached instanceof MatcherService.PreparedBoundedEditDistance);
+            MatcherService.PreparedBoundedEditDistance bounded = (MatcherService.PreparedBoundedEditDistance) matcher;
+            MatcherService.PreparedBoundedEditDistance cachedBounded = (MatcherService.PreparedBoundedEditDistance) cached;
+            assertEquals(bounded.query(), cachedBounded.query());
+            assertEquals(bounded.limit(), cachedBounded.limit());
+            assertEquals(bounded.transpositions(), cachedBounded.transpositions());
+            assertScores(matcher, cached, query);
+        }
+    }
+
+    public void testShingleHashMatcher() {
+        for (String matcherName : new String[] { "cosine-similarity", "jaccard-similarity", "dice-similarity", "qgram" }) {
+            String query = randomValue(10);
+            MatcherService.PreparedMatcher matcher = matcherService.prepare(matcherName, query);
+            MatcherService.PreparedMatcher cached = matcherService.cached(matcher, matcherName, query);
+            assertTrue(cached instanceof MatcherService.PreparedShingleHashMatcher);
+            assertScores(matcher, cached, query);
+            for (int i = 0; i < 20; i++) {
+                String value = MatcherService.normalize(randomSimilarValue(query));
+                long[] hashes = ShingleHashes.hashes(value, ShingleHashes.SHINGLE_SIZE);
+                assertEquals(value, ((MatcherService.PreparedShingleHashMatcher) matcher).scoreShingles(value, hashes, hashes.length),
+                        ((MatcherService.PreparedShingleHashMatcher) cached).scoreShingles(value, hashes, hashes.length), 0.0);
+            }
+        }
+    }
+
+    private static void assertScores(MatcherService.PreparedMatcher matcher, MatcherService.PreparedMatcher cached, String query) {
+        for (int i = 0; i < 20; i++) {
+            String value = randomSimilarValue(query);
+            assertEquals(value, matcher.quickScore(value), cached.quickScore(value), 0.0);
+            // twice, the second score comes from the cache
+            assertEquals(value, matcher.score(value), cached.score(value), 0.0);
+            assertEquals(value, matcher.score(value), cached.score(value), 0.0);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity;
+
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Random values for comparing the matchers with the string similarity library they replace.
+ */
+public abstract class StringMatcherTestCase extends ESTestCase {
+
+    /**
+     * Values from a small alphabet share many characters, which exercises transpositions and long common runs, with
+     * the odd value of arbitrary characters.
+     */
+    protected static String randomValue(int maxLength) {
+        if (rarely()) {
+            return randomRealisticUnicodeOfCodepointLengthBetween(0, maxLength / 2);
+        }
+        char[] chars = new char[randomIntBetween(0, maxLength)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = "abcd ".charAt(randomIntBetween(0, 4));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return a value a few random edits away from the given one, or an unrelated value.
+     */
+    protected static String randomSimilarValue(String value) {
+        if (rarely()) {
+            return randomValue(value.length() + 2);
+        }
+        StringBuilder similar = new StringBuilder(value);
+        int edits = randomIntBetween(0, 4);
+        for (int i = 0; i < edits; i++) {
+            int at = randomIntBetween(0, similar.length());
+            char c = "abcde".charAt(randomIntBetween(0, 4));
+            switch (randomIntBetween(0, 3)) {
+                case 0:
+                    similar.insert(at, c);
+                    break;
+                case 1:
+                    if (at < similar.length()) {
+                        similar.deleteCharAt(at);
+                    }
+                    break;
+                case 2:
+                    if (at < similar.length()) {
+                        similar.setCharAt(at, c);
+                    }
+                    break;
+                default:
+                    if (at + 1 < similar.length()) {
+                        char swap = similar.charAt(at);
+                        similar.setCharAt(at, similar.charAt(at + 1));
+                        similar.setCharAt(at + 1, swap);
+                    }
+            }
+        }
+        return similar.toString();
+    }
+}
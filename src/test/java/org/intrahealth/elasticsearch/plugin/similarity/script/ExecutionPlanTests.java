@@ -0,0 +1,197 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.apache.lucene.search.Explanation;
+import org.elasticsearch.test.ESTestCase;
+import org.intrahealth.elasticsearch.plugin.similarity.MatcherService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that skipping matchers never changes which documents reach the minimum score: the bounds a plan prunes
+ * with must hold for every score mode and matcher, including matchers with negative scores and negative weights.
+ * The normalized-lcs matchers score two empty values NaN, which no bound orders, so those scores are left out.
+ */
+public class ExecutionPlanTests extends ESTestCase {
+
+    private static final String[] VALUES = { "jonathan", "jonathon", "jon", "johnny", "nathan", "", " " };
+    private static final String[] MATCHERS = { "jaro-winkler-similarity", "levenshtein", "damerau-levenshtein",
+            "normalized-lcs-similarity", "normalized-lcs-distance", "longest-common-subsequence", "cosine-similarity",
+            "qgram", "soundex" };
+    private static final String[] NULL_HANDLINGS = { "off", "conservative", "greedy", "moderate" };
+    private static final int FIELDS = 3;
+
+    private final MatcherService matcherService = new MatcherService();
+
+    public void testMaxScoreBoundsEveryScore() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Map<String, Object> params = randomParams();
+            ExecutionPlan plan = ExecutionPlan.compile(params, matcherService, null, null);
+            ExecutionPlan.Leaf leaf = plan.getLeaf(documents());
+            double maxScore = plan.maxScore();
+            for (int doc = 0; doc < documentCount(); doc++) {
+                double score = leaf.score(doc, Double.NEGATIVE_INFINITY);
+                assertTrue(params + " scores " + score + " above " + maxScore, score <= maxScore + 1e-9 || Double.isNaN(score));
+            }
+        }
+    }
+
+    public void testRejectedDocumentsScoreBelowTheMinimum() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Map<String, Object> params = randomParams();
+            ExecutionPlan plan = ExecutionPlan.compile(params, matcherService, null, null);
+            ExecutionPlan.Leaf leaf = plan.getLeaf(documents());
+            for (int doc = 0; doc < documentCount(); doc++) {
+                double score = leaf.score(doc, Double.NEGATIVE_INFINITY);
+                if (Double.isNaN(score)) {
+                    continue;
+                }
+                double rejectBelow = randomDoubleBetween(-2, 4, true);
+                double bounded = leaf.score(doc, rejectBelow);
+                if (score >= rejectBelow) {
+                    assertEquals(params + " rejecting below " + rejectBelow, score, bounded, 1e-9);
+                } else {
+                    assertTrue(params + " accepts " + bounded + " for " + score + " below " + rejectBelow, bounded < rejectBelow);
+                    assertTrue(params + " bounds " + score + " with " + bounded, bounded >= score - 1e-9);
+                }
+            }
+        }
+    }
+
+    public void testEarlyAcceptedDocumentsReachTheMinimum() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Map<String, Object> params = randomParams();
+            double minScore = randomDoubleBetween(-2, 4, true);
+            Map<String, Object> earlyParams = new HashMap<>(params);
+            earlyParams.put("min_score", minScore);
+            earlyParams.put("early_accept", true);
+            ExecutionPlan.Leaf leaf = ExecutionPlan.compile(params, matcherService, null, null).getLeaf(documents());
+            ExecutionPlan.Leaf earlyLeaf = ExecutionPlan.compile(earlyParams, matcherService, null, null).getLeaf(documents());
+            for (int doc = 0; doc < documentCount(); doc++) {
+                double score = leaf.score(doc, Double.NEGATIVE_INFINITY);
+                if (Double.isNaN(score)) {
+                    continue;
+                }
+                double early = earlyLeaf.score(doc);
+                assertEquals(params + " with min_score " + minScore + " scores " + score + " as " + early,
+                        score >= minScore, early >= minScore);
+            }
+        }
+    }
+
+    public void testExplanationMatchesTheScore() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> params = randomParams();
+            ExecutionPlan.Leaf leaf = ExecutionPlan.compile(params, matcherService, null, null).getLeaf(documents());
+            for (int doc = 0; doc < documentCount(); doc++) {
+                double score = leaf.score(doc, Double.NEGATIVE_INFINITY);
+                Explanation explanation = leaf.explain(doc);
+                assertEquals(params.toString(), score, explanation.getValue().doubleValue(), 1e-9);
+            }
+        }
+    }
+
+    public void testExplanationShowsTheUnboundedDistance() throws Exception {
+        Map<String, Object> matcher = new HashMap<>();
+        matcher.put("field", "name");
+        matcher.put("value", List.of("jo", "jon"));
+        matcher.put("matcher", "levenshtein");
+        matcher.put("threshold", 1.0);
+        matcher.put("weight", 1.0);
+        Map<String, Object> params = new HashMap<>();
+        params.put("score_mode", "sum");
+        params.put("matchers", List.of(matcher));
+        ExecutionPlan.Leaf leaf = ExecutionPlan.compile(params, matcherService, null, null)
+                .getLeaf(new FieldValueReader.Leaf[] { doc -> "Jonathon" });
+        Explanation field = leaf.explain(0).getDetails()[0];
+        assertEquals("matcher score", field.getDetails()[0].getDescription());
+        assertEquals(5.0, field.getDetails()[0].getValue().doubleValue(), 0.0);
+        assertEquals("threshold, not met", field.getDetails()[1].getDescription());
+        assertEquals(0.0, field.getValue().doubleValue(), 0.0);
+    }
+
+    public void testNormalizedLcsBounds() {
+        assertEquals(-1.0, matcherService.minScore("normalized-lcs-similarity"), 0.0);
+        assertEquals(1.0, matcherService.maxScore("normalized-lcs-similarity"), 0.0);
+        assertEquals(0.0, matcherService.minScore("normalized-lcs-distance"), 0.0);
+        assertEquals(2.0, matcherService.maxScore("normalized-lcs-distance"), 0.0);
+        for (String left : VALUES) {
+            for (String right : VALUES) {
+                if (left.trim().isEmpty() && right.trim().isEmpty()) {
+                    continue;
+                }
+                double similarity = matcherService.matchScore("normalized-lcs-similarity", left, right);
+                double distance = matcherService.matchScore("normalized-lcs-distance", left, right);
+                assertTrue(left + " / " + right, similarity >= -1.0 && similarity <= 1.0);
+                assertTrue(left + " / " + right, distance >= 0.0 && distance <= 2.0);
+            }
+        }
+    }
+
+    private static Map<String, Object> randomParams() {
+        String scoreMode = randomFrom("fellegi-sunter", "bayes", "multiply", "sum");
+        List<Object> matchers = new ArrayList<>();
+        for (int field = 0; field < FIELDS; field++) {
+            Map<String, Object> matcher = new HashMap<>();
+            matcher.put("field", "f" + field);
+            matcher.put("value", randomBoolean() ? randomFrom(VALUES) : List.of(randomFrom(VALUES), randomFrom(VALUES)));
+            matcher.put("matcher", randomFrom(MATCHERS));
+            matcher.put("null_handling", randomFrom(NULL_HANDLINGS));
+            matcher.put("threshold", randomBoolean() ? 0.0 : randomFrom(0.5, 0.9, 1.0, 2.0));
+            matcher.put("m_value", randomDoubleBetween(0.5, 0.99, true));
+            matcher.put("u_value", randomDoubleBetween(0.001, 0.5, true));
+            double low = randomDoubleBetween(0.0, 0.5, true);
+            matcher.put("low", low);
+            matcher.put("high", randomBoolean() ? randomDoubleBetween(low, 1.0, true) : randomDoubleBetween(-1.0, 2.0, true));
+            matcher.put("weight", randomFrom(0.0, 1.0, randomDoubleBetween(-1.0, 2.0, true)));
+            matchers.add(matcher);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("score_mode", scoreMode);
+        params.put("base_score", 1.0);
+        params.put("matchers", matchers);
+        return params;
+    }
+
+    /*
+     * Every combination of the values in every field.
+     */
+    private static FieldValueReader.Leaf[] documents() {
+        FieldValueReader.Leaf[] documents = new FieldValueReader.Leaf[FIELDS];
+        int stride = 1;
+        for (int field = 0; field < FIELDS; field++) {
+            int fieldStride = stride;
+            documents[field] = doc -> VALUES[(doc / fieldStride) % VALUES.length];
+            stride *= VALUES.length;
+        }
+        return documents;
+    }
+
+    private static int documentCount() {
+        int count = 1;
+        for (int field = 0; field < FIELDS; field++) {
+            count *= VALUES.length;
+        }
+        return count;
+    }
+}
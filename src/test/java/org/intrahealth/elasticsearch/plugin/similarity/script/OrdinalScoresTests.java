@@ -0,0 +1,59 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.intrahealth.elasticsearch.plugin.similarity.script;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the table of the scores kept by ordinal against a map.
+ */
+public class OrdinalScoresTests extends ESTestCase {
+
+    public void testScoresByOrdinal() {
+        LeafFieldMatcher.OrdinalScores scores = new LeafFieldMatcher.OrdinalScores(null);
+        Map<Integer, Double> expected = new HashMap<>();
+        Map<Integer, Boolean> blank = new HashMap<>();
+        int maxOrd = randomFrom(10, 1000, 100_000);
+        for (int i = 0; i < 5000; i++) {
+            int ord = randomIntBetween(0, maxOrd);
+            int slot = scores.find(ord);
+            if (blank.containsKey(ord) == false) {
+                assertEquals(LeafFieldMatcher.OrdinalScores.FREE, scores.state(slot));
+                blank.put(ord, randomBoolean());
+                slot = scores.add(ord, blank.get(ord));
+            }
+            if (blank.get(ord)) {
+                assertEquals(LeafFieldMatcher.OrdinalScores.BLANK, scores.state(slot));
+            } else if (expected.containsKey(ord)) {
+                assertEquals(LeafFieldMatcher.OrdinalScores.SCORED, scores.state(slot));
+                assertEquals(expected.get(ord), scores.score(slot), 0.0);
+            } else {
+                assertEquals(LeafFieldMatcher.OrdinalScores.PRESENT, scores.state(slot));
+                double score = randomDoubleBetween(-1, 1, true);
+                scores.setScore(slot, score);
+                expected.put(ord, score);
+            }
+            // adding an ordinal again keeps its state
+            assertEquals(slot, scores.add(ord, blank.get(ord) == false));
+        }
+    }
+}